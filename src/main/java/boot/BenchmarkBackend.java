@@ -0,0 +1,22 @@
+package boot;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.util.List;
+
+// Renders the frames of a benchmark run. Implementations must not need a window so runs can be unattended
+public interface BenchmarkBackend {
+    // Called before the first frame of every benchmark case
+    void setup(BenchmarkConfig.Case benchmarkCase);
+
+    void renderFrame(Matrix4f view, Matrix4f projection, Vector3f viewPosition, List<Main.PointLight> pointLights);
+
+    // Light culling of the last rendered frame, used for the lights per tile histogram
+    LightCulling getCulling();
+
+    // Fraction of tiles culled again per frame since setup, 1 unless culling is incremental
+    default double getRecomputedFraction() {
+        return 1.0;
+    }
+}
@@ -0,0 +1,157 @@
+package boot;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.function.Function;
+
+// Settings of a benchmark run, read from a properties file. Swept values are comma separated lists:
+//   lightCounts = 256, 1024
+//   lightRadii = 15, 30
+//   tileSizes = 8, 16, 32
+//   resolutions = 1280x720, 1920x1080
+//   cullingModes = full, incremental
+// Other keys: path (camera path file, relative to the config file), interpolation (spline or linear),
+// timestep, warmupFrames, movingLights (fraction of the lights that are animated), backend (culling or software),
+// model, seed and output
+public class BenchmarkConfig {
+    List<Integer> lightCounts = List.of(Main.NUM_LIGHTS);
+    List<Float> lightRadii = List.of(Main.LIGHT_RADIUS);
+    List<Integer> tileSizes = List.of(16);
+    List<int[]> resolutions = List.of(new int[]{(int) Main.SCREEN_SIZE.x, (int) Main.SCREEN_SIZE.y});
+    List<Boolean> incrementalModes = List.of(false);
+    float movingLights = 1.0f;
+    Path path;
+    boolean spline = true;
+    float timestep = 1.0f / 60.0f;
+    int warmupFrames = 10;
+    String backend = "culling";
+    String model = GoldenImages.DEFAULT_MODEL;
+    long seed = 1;
+    Path output = Path.of("benchmark-results");
+
+    // One combination of the swept settings
+    public static class Case {
+        final int lightCount;
+        final float lightRadius;
+        final int tileSize;
+        final int width;
+        final int height;
+        final boolean incremental;
+
+        Case(int lightCount, float lightRadius, int tileSize, int width, int height, boolean incremental) {
+            this.lightCount = lightCount;
+            this.lightRadius = lightRadius;
+            this.tileSize = tileSize;
+            this.width = width;
+            this.height = height;
+            this.incremental = incremental;
+        }
+
+        public String getCullingMode() {
+            return incremental ? "incremental" : "full";
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "lights=%d radius=%.1f tile=%d %dx%d culling=%s",
+                    lightCount, lightRadius, tileSize, width, height, getCullingMode());
+        }
+    }
+
+    public static BenchmarkConfig load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            properties.load(reader);
+        }
+
+        BenchmarkConfig config = new BenchmarkConfig();
+        Path directory = file.toAbsolutePath().getParent();
+        try {
+            if (properties.containsKey("lightCounts"))
+                config.lightCounts = parseList(properties.getProperty("lightCounts"), Integer::parseInt);
+            if (properties.containsKey("lightRadii"))
+                config.lightRadii = parseList(properties.getProperty("lightRadii"), Float::parseFloat);
+            if (properties.containsKey("tileSizes"))
+                config.tileSizes = parseList(properties.getProperty("tileSizes"), Integer::parseInt);
+            if (properties.containsKey("resolutions"))
+                config.resolutions = parseList(properties.getProperty("resolutions"), BenchmarkConfig::parseResolution);
+            if (properties.containsKey("cullingModes"))
+                config.incrementalModes = parseList(properties.getProperty("cullingModes"), BenchmarkConfig::parseCullingMode);
+            if (properties.containsKey("path"))
+                config.path = directory.resolve(properties.getProperty("path").trim());
+            config.spline = !properties.getProperty("interpolation", "spline").trim().equals("linear");
+            config.timestep = Float.parseFloat(properties.getProperty("timestep", Float.toString(config.timestep)));
+            config.movingLights = Float.parseFloat(properties.getProperty("movingLights", Float.toString(config.movingLights)));
+            config.warmupFrames = Integer.parseInt(properties.getProperty("warmupFrames", Integer.toString(config.warmupFrames)).trim());
+            config.backend = properties.getProperty("backend", config.backend).trim();
+            config.model = properties.getProperty("model", config.model).trim();
+            config.seed = Long.parseLong(properties.getProperty("seed", Long.toString(config.seed)).trim());
+            config.output = Path.of(properties.getProperty("output", config.output.toString()).trim());
+            config.validate();
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid benchmark config " + file + ": " + e.getMessage(), e);
+        }
+        return config;
+    }
+
+    // Rejects combinations that would only fail once the sweep reaches them
+    public void validate() {
+        if (backend.equals("software") && incrementalModes.contains(true)) {
+            throw new IllegalArgumentException("The software backend only supports full culling");
+        }
+    }
+
+    public List<Case> cases() {
+        List<Case> cases = new ArrayList<>();
+        for (int[] resolution : resolutions) {
+            for (int tileSize : tileSizes) {
+                for (int lightCount : lightCounts) {
+                    for (float lightRadius : lightRadii) {
+                        for (boolean incremental : incrementalModes) {
+                            cases.add(new Case(lightCount, lightRadius, tileSize, resolution[0], resolution[1], incremental));
+                        }
+                    }
+                }
+            }
+        }
+        return cases;
+    }
+
+    private static <T> List<T> parseList(String value, Function<String, T> parser) {
+        List<T> list = new ArrayList<>();
+        for (String item : value.split(",")) {
+            if (!item.isBlank()) {
+                list.add(parser.apply(item.trim()));
+            }
+        }
+        if (list.isEmpty()) {
+            throw new IllegalArgumentException("Empty list");
+        }
+        return list;
+    }
+
+    private static boolean parseCullingMode(String value) {
+        switch (value) {
+            case "full":
+                return false;
+            case "incremental":
+                return true;
+            default:
+                throw new IllegalArgumentException("Expected full or incremental, got " + value);
+        }
+    }
+
+    private static int[] parseResolution(String value) {
+        String[] size = value.split("x");
+        if (size.length != 2) {
+            throw new IllegalArgumentException("Expected WIDTHxHEIGHT, got " + value);
+        }
+        return new int[]{Integer.parseInt(size[0].trim()), Integer.parseInt(size[1].trim())};
+    }
+}
@@ -0,0 +1,232 @@
+package boot;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+import static boot.Main.*;
+
+// Replays a camera path through Camera with a fixed timestep for every combination of light count,
+// light radius, tile size and resolution in a benchmark config, then writes frame time statistics
+// and lights per tile histograms as CSV and JSON. Runs headless so it can be used on build machines.
+// Usage: BenchmarkRunner [config.properties]
+public class BenchmarkRunner {
+
+    // Culls the lights on the CPU with every tile spanning the full depth range. No geometry is needed
+    static class CullingBackend implements BenchmarkBackend {
+        LightCulling culling;
+        IncrementalLightCulling incrementalCulling;
+        float[] minDepth;
+        float[] maxDepth;
+        final List<SpotLight> spotLights = new ArrayList<>();
+
+        @Override
+        public void setup(BenchmarkConfig.Case benchmarkCase) {
+            culling = new LightCulling(benchmarkCase.width, benchmarkCase.height, benchmarkCase.tileSize);
+            incrementalCulling = benchmarkCase.incremental ? new IncrementalLightCulling(culling) : null;
+            minDepth = new float[culling.getNumberOfTiles()];
+            maxDepth = new float[culling.getNumberOfTiles()];
+            Arrays.fill(minDepth, NEAR_PLANE);
+            Arrays.fill(maxDepth, FAR_PLANE);
+        }
+
+        @Override
+        public void renderFrame(Matrix4f view, Matrix4f projection, Vector3f viewPosition, List<PointLight> pointLights) {
+            if (incrementalCulling != null) {
+                incrementalCulling.cull(view, projection, minDepth, maxDepth, pointLights, spotLights);
+            } else {
+                culling.setView(view, projection);
+                culling.cull(minDepth, maxDepth, pointLights, spotLights, false);
+            }
+        }
+
+        @Override
+        public LightCulling getCulling() {
+            return culling;
+        }
+
+        @Override
+        public double getRecomputedFraction() {
+            return incrementalCulling != null ? incrementalCulling.getRecomputedFraction() : 1.0;
+        }
+    }
+
+    // Renders the model with the software renderer. Always culls every tile, BenchmarkConfig.validate rejects incremental cases
+    static class SoftwareBackend implements BenchmarkBackend {
+        final List<CpuMesh> meshes;
+        final Matrix4f model = new Matrix4f().scale(GoldenImages.MODEL_SCALE);
+        final List<SpotLight> spotLights = new ArrayList<>();
+        SoftwareRenderer renderer;
+
+        SoftwareBackend(String model) {
+            meshes = CpuMesh.loadModel(model);
+        }
+
+        @Override
+        public void setup(BenchmarkConfig.Case benchmarkCase) {
+            renderer = new SoftwareRenderer(benchmarkCase.width, benchmarkCase.height, benchmarkCase.tileSize,
+                    ForkJoinPool.commonPool());
+        }
+
+        @Override
+        public void renderFrame(Matrix4f view, Matrix4f projection, Vector3f viewPosition, List<PointLight> pointLights) {
+            renderer.render(meshes, model, view, projection, viewPosition, pointLights, spotLights, exposure);
+        }
+
+        @Override
+        public LightCulling getCulling() {
+            return renderer.getCulling();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        BenchmarkConfig config = args.length > 0 ? BenchmarkConfig.load(Path.of(args[0])) : new BenchmarkConfig();
+        CameraPath path = config.path != null ? CameraPath.load(config.path, config.spline) : defaultPath(config.spline);
+        BenchmarkBackend backend = createBackend(config);
+
+        List<BenchmarkConfig.Case> cases = config.cases();
+        List<FrameStatistics> results = new ArrayList<>();
+        for (int i = 0; i < cases.size(); i++) {
+            BenchmarkConfig.Case benchmarkCase = cases.get(i);
+            System.out.printf("[%d/%d] %s%n", i + 1, cases.size(), benchmarkCase);
+            FrameStatistics statistics = run(config, benchmarkCase, path, backend);
+            System.out.printf(Locale.ROOT, "        mean %.3f ms, p95 %.3f ms, %.2f lights per tile, %.1f%% tiles culled%n",
+                    statistics.getMeanMilliseconds(), statistics.getPercentileMilliseconds(95),
+                    statistics.getAverageLightsPerTile(), statistics.getRecomputedFraction() * 100.0);
+            results.add(statistics);
+        }
+
+        Files.createDirectories(config.output);
+        writeCsv(config, cases, results, config.output.resolve("results.csv"));
+        writeHistogramCsv(config, cases, results, config.output.resolve("histograms.csv"));
+        writeJson(config, cases, results, config.output.resolve("results.json"));
+        System.out.println("Results written to " + config.output.toAbsolutePath());
+    }
+
+    static BenchmarkBackend createBackend(BenchmarkConfig config) {
+        config.validate();
+        switch (config.backend) {
+            case "culling":
+                return new CullingBackend();
+            case "software":
+                return new SoftwareBackend(config.model);
+            default:
+                throw new IllegalArgumentException("Unknown benchmark backend: " + config.backend);
+        }
+    }
+
+    // Replays the camera path once with fixed timesteps. Warm up frames are rendered but not recorded
+    static FrameStatistics run(BenchmarkConfig config, BenchmarkConfig.Case benchmarkCase, CameraPath path,
+                               BenchmarkBackend backend) {
+        backend.setup(benchmarkCase);
+        List<PointLight> lights = RandomLights(benchmarkCase.lightCount, benchmarkCase.lightRadius, config.seed);
+        List<PointLight> movingLights = lights.subList(0, Math.round(lights.size() * config.movingLights));
+        Camera camera = new Camera(new Vector3f(), new Vector3f(0.0f, 1.0f, 0.0f));
+        Matrix4f projection = new Matrix4f().perspective((float) Math.toRadians(camera.zoom),
+                (float) benchmarkCase.width / benchmarkCase.height, NEAR_PLANE, FAR_PLANE);
+
+        FrameStatistics statistics = new FrameStatistics();
+        int frames = (int) Math.ceil(path.getDuration() / config.timestep) + 1;
+        for (int frame = -config.warmupFrames; frame < frames; frame++) {
+            float time = Math.max(0, frame) * config.timestep;
+            path.apply(time, camera);
+
+            long start = System.nanoTime();
+            UpdateLights(movingLights);
+            backend.renderFrame(camera.getViewMatrix(), projection, camera.getPosition(), lights);
+            long elapsed = System.nanoTime() - start;
+
+            if (frame >= 0) {
+                statistics.addFrame(elapsed);
+                statistics.addTiles(backend.getCulling());
+            }
+        }
+        statistics.setRecomputedFraction(backend.getRecomputedFraction());
+        return statistics;
+    }
+
+    // Loop around the scene used when the config has no camera path
+    static CameraPath defaultPath(boolean spline) {
+        CameraPath path = new CameraPath(spline);
+        path.add(new CameraPath.Keyframe(0.0f, new Vector3f(-40.0f, 10.0f, 0.0f), 0.0f, 0.0f));
+        path.add(new CameraPath.Keyframe(4.0f, new Vector3f(0.0f, 15.0f, -30.0f), 45.0f, 5.0f));
+        path.add(new CameraPath.Keyframe(8.0f, new Vector3f(60.0f, 20.0f, 0.0f), 180.0f, -5.0f));
+        path.add(new CameraPath.Keyframe(12.0f, new Vector3f(0.0f, 10.0f, 30.0f), 270.0f, 0.0f));
+        path.add(new CameraPath.Keyframe(16.0f, new Vector3f(-40.0f, 10.0f, 0.0f), 360.0f, 0.0f));
+        return path;
+    }
+
+    static void writeCsv(BenchmarkConfig config, List<BenchmarkConfig.Case> cases, List<FrameStatistics> results,
+                         Path file) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file))) {
+            writer.println("backend,culling,lights,radius,tileSize,width,height,frames,meanMs,p50Ms,p95Ms,p99Ms,maxMs,"
+                    + "averageLightsPerTile,maxLightsPerTile,recomputedFraction");
+            for (int i = 0; i < cases.size(); i++) {
+                BenchmarkConfig.Case c = cases.get(i);
+                FrameStatistics s = results.get(i);
+                writer.printf(Locale.ROOT, "%s,%s,%d,%.2f,%d,%d,%d,%d,%.4f,%.4f,%.4f,%.4f,%.4f,%.4f,%d,%.4f%n",
+                        config.backend, c.getCullingMode(), c.lightCount, c.lightRadius, c.tileSize, c.width, c.height,
+                        s.getFrameCount(), s.getMeanMilliseconds(), s.getPercentileMilliseconds(50),
+                        s.getPercentileMilliseconds(95), s.getPercentileMilliseconds(99),
+                        s.getPercentileMilliseconds(100), s.getAverageLightsPerTile(), s.getMaxLightsPerTile(),
+                        s.getRecomputedFraction());
+            }
+        }
+    }
+
+    static void writeHistogramCsv(BenchmarkConfig config, List<BenchmarkConfig.Case> cases,
+                                  List<FrameStatistics> results, Path file) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file))) {
+            StringBuilder header = new StringBuilder("backend,culling,lights,radius,tileSize,width,height");
+            for (int bucket = 0; bucket < FrameStatistics.HISTOGRAM_BUCKETS; bucket++) {
+                header.append(",").append(FrameStatistics.getBucketLabel(bucket));
+            }
+            writer.println(header);
+            for (int i = 0; i < cases.size(); i++) {
+                BenchmarkConfig.Case c = cases.get(i);
+                writer.printf(Locale.ROOT, "%s,%s,%d,%.2f,%d,%d,%d", config.backend, c.getCullingMode(), c.lightCount, c.lightRadius,
+                        c.tileSize, c.width, c.height);
+                for (int bucket = 0; bucket < FrameStatistics.HISTOGRAM_BUCKETS; bucket++) {
+                    writer.print("," + results.get(i).getHistogramBucket(bucket));
+                }
+                writer.println();
+            }
+        }
+    }
+
+    static void writeJson(BenchmarkConfig config, List<BenchmarkConfig.Case> cases, List<FrameStatistics> results,
+                          Path file) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file))) {
+            writer.println("[");
+            for (int i = 0; i < cases.size(); i++) {
+                BenchmarkConfig.Case c = cases.get(i);
+                FrameStatistics s = results.get(i);
+                writer.printf(Locale.ROOT, "  {\"backend\": \"%s\", \"culling\": \"%s\", \"lights\": %d, \"radius\": %.2f, "
+                                + "\"tileSize\": %d, \"width\": %d, \"height\": %d, \"frames\": %d,%n",
+                        config.backend, c.getCullingMode(), c.lightCount, c.lightRadius, c.tileSize, c.width, c.height, s.getFrameCount());
+                writer.printf(Locale.ROOT, "   \"frameTimeMs\": {\"mean\": %.4f, \"p50\": %.4f, \"p95\": %.4f, "
+                                + "\"p99\": %.4f, \"max\": %.4f},%n",
+                        s.getMeanMilliseconds(), s.getPercentileMilliseconds(50), s.getPercentileMilliseconds(95),
+                        s.getPercentileMilliseconds(99), s.getPercentileMilliseconds(100));
+                writer.printf(Locale.ROOT, "   \"averageLightsPerTile\": %.4f, \"maxLightsPerTile\": %d, \"recomputedFraction\": %.4f,%n",
+                        s.getAverageLightsPerTile(), s.getMaxLightsPerTile(), s.getRecomputedFraction());
+                writer.print("   \"lightsPerTileHistogram\": {");
+                for (int bucket = 0; bucket < FrameStatistics.HISTOGRAM_BUCKETS; bucket++) {
+                    writer.printf("%s\"%s\": %d", bucket == 0 ? "" : ", ", FrameStatistics.getBucketLabel(bucket),
+                            s.getHistogramBucket(bucket));
+                }
+                writer.println("}}" + (i + 1 < cases.size() ? "," : ""));
+            }
+            writer.println("]");
+        }
+    }
+}
@@ -42,7 +42,7 @@ public class Camera {
         this.pitch = PITCH;
         front = new Vector3f(0.0f, 0.0f, -1.0f);
         right = new Vector3f();
-        worldUp = new Vector3f();
+        worldUp = new Vector3f(up);
         movementSpeed = SPEED;
         mouseSensitivity = SENSITIVTY;
         zoom = ZOOM;
@@ -51,7 +51,27 @@ public class Camera {
 
     // Returns the view matrix calculated using Eular Angles and the LookAt Matrix
     public Matrix4f getViewMatrix() {
-        return new Matrix4f().lookAt(position, position.add(front), up);
+        return new Matrix4f().lookAt(position, new Vector3f(position).add(front), up);
+    }
+
+    // Places the camera directly, used to replay camera paths
+    public void setPose(Vector3f position, float yaw, float pitch) {
+        this.position.set(position);
+        this.yaw = yaw;
+        this.pitch = pitch;
+        update();
+    }
+
+    public Vector3f getPosition() {
+        return position;
+    }
+
+    public float getYaw() {
+        return yaw;
+    }
+
+    public float getPitch() {
+        return pitch;
     }
 
     // Processes input received from any keyboard-like input system. Accepts input parameter in the form of camera defined ENUM (to abstract it from windowing systems)
@@ -99,7 +119,7 @@ public class Camera {
         front.y = (float) Math.sin(Math.toRadians(pitch));
         front.z = (float) (Math.sin(Math.toRadians(yaw)) * Math.cos(Math.toRadians(pitch)));
         front = front.normalize();
-        right = front.cross(worldUp).normalize();
-        up = right.cross(front).normalize();
+        right = new Vector3f(front).cross(worldUp).normalize();
+        up = new Vector3f(right).cross(front).normalize();
     }
 }
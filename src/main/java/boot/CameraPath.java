@@ -0,0 +1,134 @@
+package boot;
+
+import org.joml.Vector3f;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// Camera keyframes replayed through Camera by the benchmark runner.
+// Path files have one keyframe per line: time x y z yaw pitch. Lines starting with # are comments
+public class CameraPath {
+    public static class Keyframe {
+        final float time;
+        final Vector3f position;
+        final float yaw;
+        final float pitch;
+
+        public Keyframe(float time, Vector3f position, float yaw, float pitch) {
+            this.time = time;
+            this.position = position;
+            this.yaw = yaw;
+            this.pitch = pitch;
+        }
+    }
+
+    final List<Keyframe> keyframes = new ArrayList<>();
+    // Catmull-Rom spline through the keyframes when set, linear interpolation otherwise
+    final boolean spline;
+
+    public CameraPath(boolean spline) {
+        this.spline = spline;
+    }
+
+    public static CameraPath load(Path path, boolean spline) throws IOException {
+        CameraPath cameraPath = new CameraPath(spline);
+        for (String line : Files.readAllLines(path)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] values = line.split("\\s+");
+            if (values.length != 6) {
+                throw new IOException("Expected 'time x y z yaw pitch' in " + path + ": " + line);
+            }
+            cameraPath.add(new Keyframe(Float.parseFloat(values[0]),
+                    new Vector3f(Float.parseFloat(values[1]), Float.parseFloat(values[2]), Float.parseFloat(values[3])),
+                    Float.parseFloat(values[4]), Float.parseFloat(values[5])));
+        }
+        if (cameraPath.keyframes.isEmpty()) {
+            throw new IOException("No keyframes in " + path);
+        }
+        return cameraPath;
+    }
+
+    public void save(Path path) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(path))) {
+            writer.println("# time x y z yaw pitch");
+            for (Keyframe keyframe : keyframes) {
+                writer.printf(Locale.ROOT, "%f %f %f %f %f %f%n", keyframe.time, keyframe.position.x,
+                        keyframe.position.y, keyframe.position.z, keyframe.yaw, keyframe.pitch);
+            }
+        }
+    }
+
+    // Keyframes must be added in time order
+    public void add(Keyframe keyframe) {
+        if (!keyframes.isEmpty() && keyframe.time < keyframes.get(keyframes.size() - 1).time) {
+            throw new IllegalArgumentException("Keyframes must be added in time order");
+        }
+        keyframes.add(keyframe);
+    }
+
+    // Records the camera's current pose, so live sessions can be saved and replayed later
+    public void record(float time, Camera camera) {
+        add(new Keyframe(time, new Vector3f(camera.getPosition()), camera.getYaw(), camera.getPitch()));
+    }
+
+    public float getDuration() {
+        return keyframes.get(keyframes.size() - 1).time;
+    }
+
+    // Moves the camera to the path's pose at the given time. Times outside the path are clamped
+    public void apply(float time, Camera camera) {
+        int last = keyframes.size() - 1;
+        if (last == 0 || time <= keyframes.get(0).time) {
+            Keyframe first = keyframes.get(0);
+            camera.setPose(first.position, first.yaw, first.pitch);
+            return;
+        }
+        if (time >= keyframes.get(last).time) {
+            Keyframe end = keyframes.get(last);
+            camera.setPose(end.position, end.yaw, end.pitch);
+            return;
+        }
+
+        int i = 0;
+        while (keyframes.get(i + 1).time <= time) {
+            i++;
+        }
+        Keyframe k1 = keyframes.get(i);
+        Keyframe k2 = keyframes.get(i + 1);
+        float t = (time - k1.time) / (k2.time - k1.time);
+
+        Vector3f position = new Vector3f();
+        float yaw;
+        float pitch;
+        if (spline) {
+            Keyframe k0 = keyframes.get(Math.max(0, i - 1));
+            Keyframe k3 = keyframes.get(Math.min(last, i + 2));
+            for (int c = 0; c < 3; c++) {
+                position.setComponent(c, catmullRom(k0.position.get(c), k1.position.get(c),
+                        k2.position.get(c), k3.position.get(c), t));
+            }
+            yaw = catmullRom(k0.yaw, k1.yaw, k2.yaw, k3.yaw, t);
+            pitch = catmullRom(k0.pitch, k1.pitch, k2.pitch, k3.pitch, t);
+        } else {
+            k1.position.lerp(k2.position, t, position);
+            yaw = k1.yaw + (k2.yaw - k1.yaw) * t;
+            pitch = k1.pitch + (k2.pitch - k1.pitch) * t;
+        }
+        camera.setPose(position, yaw, pitch);
+    }
+
+    private static float catmullRom(float p0, float p1, float p2, float p3, float t) {
+        float t2 = t * t;
+        float t3 = t2 * t;
+        return 0.5f * ((2.0f * p1) + (-p0 + p2) * t + (2.0f * p0 - 5.0f * p1 + 4.0f * p2 - p3) * t2
+                + (-p0 + 3.0f * p1 - 3.0f * p2 + p3) * t3);
+    }
+}
@@ -0,0 +1,161 @@
+package boot;
+
+import org.joml.Vector3f;
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.assimp.*;
+
+import java.io.File;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.lwjgl.assimp.Assimp.*;
+
+// Mesh data kept in heap memory for the software renderer. Vertex attributes are tightly packed arrays
+// in the same layout as the vertex attribute locations used by the shaders.
+// Missing textures are null and sample as (0, 0, 0, 1) like an unbound sampler
+public class CpuMesh {
+    final float[] positions;
+    final float[] normals;
+    final float[] textureCoordinates;
+    final float[] tangents;
+    final float[] bitangents;
+    final int[] indices;
+
+    CpuTexture diffuse;
+    CpuTexture specular;
+    CpuTexture normal;
+
+    public CpuMesh(float[] positions, float[] normals, float[] textureCoordinates, float[] tangents,
+                   float[] bitangents, int[] indices) {
+        this.positions = positions;
+        this.normals = normals;
+        this.textureCoordinates = textureCoordinates;
+        this.tangents = tangents;
+        this.bitangents = bitangents;
+        this.indices = indices;
+    }
+
+    public int getVertexCount() {
+        return positions.length / 3;
+    }
+
+    public int getTriangleCount() {
+        return indices.length / 3;
+    }
+
+    // Bounding box of the vertex positions
+    public void getBounds(Vector3f min, Vector3f max) {
+        min.set(Float.MAX_VALUE);
+        max.set(-Float.MAX_VALUE);
+        for (int i = 0; i < positions.length; i += 3) {
+            min.set(Math.min(min.x, positions[i]), Math.min(min.y, positions[i + 1]), Math.min(min.z, positions[i + 2]));
+            max.set(Math.max(max.x, positions[i]), Math.max(max.y, positions[i + 1]), Math.max(max.z, positions[i + 2]));
+        }
+    }
+
+    // Loads every mesh of a model file with the same post processing as Model. Textures are resolved
+    // relative to the model's directory and shared between meshes
+    public static List<CpuMesh> loadModel(String path) {
+        List<CpuMesh> meshes = new ArrayList<>();
+        Map<String, CpuTexture> texturesLoaded = new HashMap<>();
+        File directory = new File(path).getAbsoluteFile().getParentFile();
+
+        // The scene is owned by assimp, so it is released with aiReleaseImport instead of being freed
+        AIScene aiScene = aiImportFile(path, Model.FLAGS);
+        if (aiScene == null)
+            throw new RuntimeException("Failed to load model: " + path + " " + aiGetErrorString());
+
+        try {
+            PointerBuffer aiMeshes = aiScene.mMeshes();
+            PointerBuffer aiMaterials = aiScene.mMaterials();
+            for (int i = 0; i < aiScene.mNumMeshes(); i++) {
+                assert aiMeshes != null;
+                AIMesh aiMesh = AIMesh.create(aiMeshes.get(i));
+                CpuMesh mesh = fromAssimp(aiMesh);
+
+                if (aiMesh.mMaterialIndex() >= 0 && aiMaterials != null) {
+                    AIMaterial material = AIMaterial.create(aiMaterials.get(aiMesh.mMaterialIndex()));
+                    mesh.diffuse = loadMaterialTexture(material, aiTextureType_DIFFUSE, directory, texturesLoaded);
+                    mesh.specular = loadMaterialTexture(material, aiTextureType_SPECULAR, directory, texturesLoaded);
+                    mesh.normal = loadMaterialTexture(material, aiTextureType_HEIGHT, directory, texturesLoaded);
+                }
+                meshes.add(mesh);
+            }
+        } finally {
+            aiReleaseImport(aiScene);
+        }
+        return meshes;
+    }
+
+    private static CpuMesh fromAssimp(AIMesh aiMesh) {
+        int numVertices = aiMesh.mNumVertices();
+        float[] positions = new float[numVertices * 3];
+        float[] normals = new float[numVertices * 3];
+        float[] textureCoordinates = new float[numVertices * 2];
+        float[] tangents = new float[numVertices * 3];
+        float[] bitangents = new float[numVertices * 3];
+
+        copy(aiMesh.mVertices(), positions);
+        copy(aiMesh.mNormals(), normals);
+        copy(aiMesh.mTangents(), tangents);
+        copy(aiMesh.mBitangents(), bitangents);
+
+        AIVector3D.Buffer aiTextureCoordinates = aiMesh.mTextureCoords(0);
+        if (aiTextureCoordinates != null) {
+            for (int i = 0; i < numVertices; i++) {
+                AIVector3D textCoord = aiTextureCoordinates.get(i);
+                textureCoordinates[i * 2] = textCoord.x();
+                textureCoordinates[i * 2 + 1] = textCoord.y();
+            }
+        }
+
+        int numFaces = aiMesh.mNumFaces();
+        AIFace.Buffer aiFaces = aiMesh.mFaces();
+        int[] indices = new int[numFaces * 3];
+        int count = 0;
+        for (int i = 0; i < numFaces; i++) {
+            IntBuffer buffer = aiFaces.get(i).mIndices();
+            // Triangulated on import, anything else is a point or line and is skipped
+            if (buffer.remaining() == 3) {
+                indices[count++] = buffer.get(0);
+                indices[count++] = buffer.get(1);
+                indices[count++] = buffer.get(2);
+            }
+        }
+        if (count != indices.length) {
+            int[] trimmed = new int[count];
+            System.arraycopy(indices, 0, trimmed, 0, count);
+            indices = trimmed;
+        }
+
+        return new CpuMesh(positions, normals, textureCoordinates, tangents, bitangents, indices);
+    }
+
+    private static void copy(AIVector3D.Buffer source, float[] destination) {
+        if (source == null) {
+            return;
+        }
+        for (int i = 0; i < destination.length / 3; i++) {
+            AIVector3D vector = source.get(i);
+            destination[i * 3] = vector.x();
+            destination[i * 3 + 1] = vector.y();
+            destination[i * 3 + 2] = vector.z();
+        }
+    }
+
+    private static CpuTexture loadMaterialTexture(AIMaterial material, int type, File directory,
+                                                  Map<String, CpuTexture> texturesLoaded) {
+        if (aiGetMaterialTextureCount(material, type) == 0) {
+            return null;
+        }
+        try (AIString path = AIString.calloc()) {
+            aiGetMaterialTexture(material, type, 0, path, (IntBuffer) null, null, null, null, null, null);
+            // Material files exported on Windows use backslashes
+            String textPath = new File(directory, path.dataString().replace('\\', '/')).getPath();
+            return texturesLoaded.computeIfAbsent(textPath, CpuTexture::load);
+        }
+    }
+}
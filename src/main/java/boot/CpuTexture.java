@@ -0,0 +1,65 @@
+package boot;
+
+import org.lwjgl.BufferUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+import static org.lwjgl.stb.STBImage.*;
+
+// RGBA8 texture kept in heap memory for the software renderer.
+// Sampled like a GL_REPEAT, GL_LINEAR texture without mipmaps
+public class CpuTexture {
+    final int width;
+    final int height;
+    final byte[] texels;
+
+    public CpuTexture(int width, int height, byte[] texels) {
+        this.width = width;
+        this.height = height;
+        this.texels = texels;
+    }
+
+    // Decodes an image file with stb, always expanding it to four channels
+    public static CpuTexture load(String path) {
+        IntBuffer w = BufferUtils.createIntBuffer(1);
+        IntBuffer h = BufferUtils.createIntBuffer(1);
+        IntBuffer comp = BufferUtils.createIntBuffer(1);
+
+        ByteBuffer image = stbi_load(path, w, h, comp, 4);
+        if (image == null)
+            throw new RuntimeException("Failed to load image: " + path + " " + stbi_failure_reason());
+
+        byte[] texels = new byte[w.get(0) * h.get(0) * 4];
+        image.get(0, texels);
+        stbi_image_free(image);
+        return new CpuTexture(w.get(0), h.get(0), texels);
+    }
+
+    // Bilinear sample with repeat wrapping. Writes normalized rgba into out
+    public void sample(float u, float v, float[] out) {
+        float x = u * width - 0.5f;
+        float y = v * height - 0.5f;
+        int x0 = (int) Math.floor(x);
+        int y0 = (int) Math.floor(y);
+        float fx = x - x0;
+        float fy = y - y0;
+
+        int i00 = texelIndex(x0, y0);
+        int i10 = texelIndex(x0 + 1, y0);
+        int i01 = texelIndex(x0, y0 + 1);
+        int i11 = texelIndex(x0 + 1, y0 + 1);
+
+        for (int c = 0; c < 4; c++) {
+            float top = (texels[i00 + c] & 0xFF) * (1.0f - fx) + (texels[i10 + c] & 0xFF) * fx;
+            float bottom = (texels[i01 + c] & 0xFF) * (1.0f - fx) + (texels[i11 + c] & 0xFF) * fx;
+            out[c] = (top * (1.0f - fy) + bottom * fy) / 255.0f;
+        }
+    }
+
+    private int texelIndex(int x, int y) {
+        x = Math.floorMod(x, width);
+        y = Math.floorMod(y, height);
+        return (y * width + x) * 4;
+    }
+}
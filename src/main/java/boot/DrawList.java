@@ -0,0 +1,124 @@
+package boot;
+
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.util.Arrays;
+
+// Meshes to draw this frame, frustum culled and sorted front to back so the depth pre-pass rejects as much as
+// possible. An item is a mesh placed with a model matrix, culled with its world space bounding box.
+// Ranges of items can be culled on different threads with buildRange, then merge sorts the result
+public class DrawList {
+    int itemCount;
+    int[] meshes = new int[64];
+    Matrix4f[] models = new Matrix4f[64];
+    // World space bounding box per item: min x, y, z then max x, y, z
+    float[] bounds = new float[64 * 6];
+
+    // Sort key per visible item, squared distance in the high bits and the item in the low bits.
+    // buildRange writes the keys of items first to last from index first on
+    private long[] keys = new long[64];
+    private int[] rangeCounts = new int[0];
+    private int grain = 1;
+    private int visibleCount;
+    private int[] visible = new int[64];
+
+    private final FrustumIntersection frustum = new FrustumIntersection();
+    private final Vector3f eye = new Vector3f();
+
+    // Adds a mesh drawn with the given model matrix. min and max bound the mesh in its own space
+    public int add(int mesh, Matrix4f model, Vector3f min, Vector3f max) {
+        if (itemCount == meshes.length) {
+            meshes = Arrays.copyOf(meshes, itemCount * 2);
+            models = Arrays.copyOf(models, itemCount * 2);
+            bounds = Arrays.copyOf(bounds, itemCount * 2 * 6);
+            keys = Arrays.copyOf(keys, itemCount * 2);
+            visible = Arrays.copyOf(visible, itemCount * 2);
+        }
+        Vector3f worldMin = new Vector3f();
+        Vector3f worldMax = new Vector3f();
+        model.transformAab(min, max, worldMin, worldMax);
+        int b = itemCount * 6;
+        bounds[b] = worldMin.x;
+        bounds[b + 1] = worldMin.y;
+        bounds[b + 2] = worldMin.z;
+        bounds[b + 3] = worldMax.x;
+        bounds[b + 4] = worldMax.y;
+        bounds[b + 5] = worldMax.z;
+        meshes[itemCount] = mesh;
+        models[itemCount] = new Matrix4f(model);
+        return itemCount++;
+    }
+
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    // Prepares a frame whose items are culled in ranges of grain items. Must be called before buildRange
+    public void begin(Matrix4f view, Matrix4f projection, int grain) {
+        frustum.set(new Matrix4f(projection).mul(view));
+        view.originAffine(eye);
+        this.grain = grain;
+        int ranges = (itemCount + grain - 1) / grain;
+        if (rangeCounts.length < ranges) {
+            rangeCounts = new int[ranges];
+        }
+    }
+
+    // Culls the items first to last. first must be a multiple of the grain given to begin.
+    // Ranges do not share any state, so they can be built in parallel
+    public void buildRange(int first, int last) {
+        int count = 0;
+        for (int item = first; item < last; item++) {
+            int b = item * 6;
+            if (frustum.testAab(bounds[b], bounds[b + 1], bounds[b + 2], bounds[b + 3], bounds[b + 4], bounds[b + 5])) {
+                float dx = (bounds[b] + bounds[b + 3]) * 0.5f - eye.x;
+                float dy = (bounds[b + 1] + bounds[b + 4]) * 0.5f - eye.y;
+                float dz = (bounds[b + 2] + bounds[b + 5]) * 0.5f - eye.z;
+                // Non negative floats sort in the same order as their bits
+                keys[first + count++] = (long) Float.floatToIntBits(dx * dx + dy * dy + dz * dz) << 32 | item;
+            }
+        }
+        rangeCounts[first / grain] = count;
+    }
+
+    // Gathers the visible items of every range and sorts them front to back
+    public void merge() {
+        int ranges = (itemCount + grain - 1) / grain;
+        int count = 0;
+        for (int range = 0; range < ranges; range++) {
+            System.arraycopy(keys, range * grain, keys, count, rangeCounts[range]);
+            count += rangeCounts[range];
+        }
+        Arrays.sort(keys, 0, count);
+        for (int i = 0; i < count; i++) {
+            visible[i] = (int) keys[i];
+        }
+        visibleCount = count;
+    }
+
+    // Culls and sorts every item on the calling thread
+    public void build(Matrix4f view, Matrix4f projection) {
+        begin(view, projection, Math.max(1, itemCount));
+        buildRange(0, itemCount);
+        merge();
+    }
+
+    public int getVisibleCount() {
+        return visibleCount;
+    }
+
+    // Item of the i-th closest visible mesh
+    public int getVisibleItem(int i) {
+        return visible[i];
+    }
+
+    public int getMesh(int item) {
+        return meshes[item];
+    }
+
+    public Matrix4f getModel(int item) {
+        return models[item];
+    }
+}
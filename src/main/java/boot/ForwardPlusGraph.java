@@ -0,0 +1,160 @@
+package boot;
+
+import static boot.Main.*;
+import static org.lwjgl.opengl.GL11.GL_RGBA8;
+import static org.lwjgl.opengl.GL30.GL_DEPTH_COMPONENT32F;
+import static org.lwjgl.opengl.GL30.GL_RGBA16F;
+
+// The renderer's frame as a render graph:
+//   depth              depth pre-pass into a single sample depth texture
+//   light culling      samples the depth texture and writes the visible light indices per tile
+//   light accumulation shades into the HDR color target with its own depth, multisampled when samples > 1
+//   hdr resolve        blits the multisampled HDR target to a single sample one, only with samples > 1
+//   tonemap            tonemaps the HDR target into the default framebuffer
+// The depth_debug and light_debug views replace accumulation, resolve and tonemap, and passes they do not need
+// are culled. The visible light indices are kept between frames for incremental culling, otherwise they are transient
+public class ForwardPlusGraph {
+    public enum View {
+        SCENE,
+        DEPTH_DEBUG,
+        LIGHT_DEBUG
+    }
+
+    // GL work of each pass, headless compiles can use the default empty bodies
+    public interface Passes {
+        default void depth(RenderGraphExecutor executor) {
+        }
+
+        // fullRebuild is set on the first frame of the graph with incremental culling and has to be combined with
+        // IncrementalLightCulling's own result for the compute shader's fullRebuild uniform
+        default void lightCulling(RenderGraphExecutor executor, boolean fullRebuild) {
+        }
+
+        default void lightAccumulation(RenderGraphExecutor executor) {
+        }
+
+        default void hdrResolve(RenderGraphExecutor executor) {
+        }
+
+        default void tonemap(RenderGraphExecutor executor) {
+        }
+
+        default void depthDebug(RenderGraphExecutor executor) {
+        }
+
+        default void lightDebug(RenderGraphExecutor executor) {
+        }
+    }
+
+    // GL buffers the graph imports, 0 for headless compiles
+    public static class Buffers {
+        int lightBuffer;
+        int spotLightBuffer;
+        int visibleLightIndicesBuffer;
+        int tileLightDirtyBuffer;
+        int tileDepthBoundsBuffer;
+    }
+
+    final RenderGraph graph = new RenderGraph();
+    final RenderGraph.Resource backbuffer;
+    final RenderGraph.Resource lights;
+    final RenderGraph.Resource spotLights;
+    final RenderGraph.Resource tileLightDirty;
+    final RenderGraph.Resource tileDepthBounds;
+    final RenderGraph.Resource visibleLightIndices;
+    final RenderGraph.Resource depth;
+    final RenderGraph.Resource hdrColor;
+    final RenderGraph.Resource hdrDepth;
+    final RenderGraph.Resource hdrResolved;
+    // While another graph was in use light culling may have been culled, e.g. by the depth_debug view, so the dirty
+    // flags of lights that moved meanwhile never reached the kept light lists and the first cull rebuilds every tile
+    boolean fullRebuild;
+
+    public ForwardPlusGraph(int width, int height, int samples, View view, boolean incrementalCulling,
+                            Buffers buffers, Passes passes) {
+        int numberOfTiles = ((width + 15) / 16) * ((height + 15) / 16);
+        fullRebuild = incrementalCulling;
+        backbuffer = graph.importTexture("backbuffer", 0, width, height, GL_RGBA8, 1);
+        graph.markOutput(backbuffer);
+        lights = graph.importBuffer("lights", buffers.lightBuffer, NUM_LIGHTS * 12L * Float.BYTES);
+        spotLights = graph.importBuffer("spot lights", buffers.spotLightBuffer, NUM_SPOT_LIGHTS * 12L * Float.BYTES);
+        tileLightDirty = graph.importBuffer("tile light dirty", buffers.tileLightDirtyBuffer, numberOfTiles * (long) Integer.BYTES);
+        tileDepthBounds = graph.importBuffer("tile depth bounds", buffers.tileDepthBoundsBuffer, numberOfTiles * 2L * Float.BYTES);
+        long indicesSize = numberOfTiles * (long) Integer.BYTES * LightCulling.MAX_LIGHTS_PER_TILE;
+        visibleLightIndices = incrementalCulling
+                ? graph.importBuffer("visible lights", buffers.visibleLightIndicesBuffer, indicesSize)
+                : graph.createBuffer("visible lights", indicesSize);
+        depth = graph.createTexture("depth", width, height, GL_DEPTH_COMPONENT32F, 1);
+        hdrColor = graph.createTexture("hdr color", width, height, GL_RGBA16F, samples);
+        hdrDepth = graph.createTexture("hdr depth", width, height, GL_DEPTH_COMPONENT32F, samples);
+        hdrResolved = samples > 1 ? graph.createTexture("hdr resolved", width, height, GL_RGBA16F, 1) : hdrColor;
+
+        graph.addPass("depth", passes::depth)
+                .write(depth, RenderGraph.Usage.DEPTH_ATTACHMENT);
+        graph.addPass("light culling", executor -> {
+                    passes.lightCulling(executor, fullRebuild);
+                    fullRebuild = false;
+                })
+                .read(depth, RenderGraph.Usage.SAMPLED)
+                .read(lights, RenderGraph.Usage.STORAGE_READ)
+                .read(spotLights, RenderGraph.Usage.STORAGE_READ)
+                .read(tileLightDirty, RenderGraph.Usage.STORAGE_READ)
+                .read(tileDepthBounds, RenderGraph.Usage.STORAGE_READ)
+                .write(tileDepthBounds, RenderGraph.Usage.STORAGE_WRITE)
+                .write(visibleLightIndices, RenderGraph.Usage.STORAGE_WRITE);
+
+        switch (view) {
+            case SCENE:
+                graph.addPass("light accumulation", passes::lightAccumulation)
+                        .read(lights, RenderGraph.Usage.STORAGE_READ)
+                        .read(spotLights, RenderGraph.Usage.STORAGE_READ)
+                        .read(visibleLightIndices, RenderGraph.Usage.STORAGE_READ)
+                        .write(hdrColor, RenderGraph.Usage.COLOR_ATTACHMENT)
+                        .write(hdrDepth, RenderGraph.Usage.DEPTH_ATTACHMENT);
+                if (samples > 1) {
+                    graph.addPass("hdr resolve", passes::hdrResolve)
+                            .read(hdrColor, RenderGraph.Usage.BLIT_SOURCE)
+                            .write(hdrResolved, RenderGraph.Usage.BLIT_DESTINATION);
+                }
+                graph.addPass("tonemap", passes::tonemap)
+                        .read(hdrResolved, RenderGraph.Usage.SAMPLED)
+                        .write(backbuffer, RenderGraph.Usage.COLOR_ATTACHMENT);
+                break;
+            case DEPTH_DEBUG:
+                graph.addPass("depth_debug", passes::depthDebug)
+                        .write(backbuffer, RenderGraph.Usage.COLOR_ATTACHMENT);
+                break;
+            case LIGHT_DEBUG:
+                graph.addPass("light_debug", passes::lightDebug)
+                        .read(lights, RenderGraph.Usage.STORAGE_READ)
+                        .read(visibleLightIndices, RenderGraph.Usage.STORAGE_READ)
+                        .write(backbuffer, RenderGraph.Usage.COLOR_ATTACHMENT);
+                break;
+        }
+        graph.compile();
+    }
+
+    public RenderGraph getGraph() {
+        return graph;
+    }
+
+    public RenderGraph.Resource getDepth() {
+        return depth;
+    }
+
+    public RenderGraph.Resource getHdrColor() {
+        return hdrColor;
+    }
+
+    public RenderGraph.Resource getHdrDepth() {
+        return hdrDepth;
+    }
+
+    public RenderGraph.Resource getHdrResolved() {
+        return hdrResolved;
+    }
+
+    public RenderGraph.Resource getVisibleLightIndices() {
+        return visibleLightIndices;
+    }
+}
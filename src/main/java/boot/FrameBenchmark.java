@@ -0,0 +1,139 @@
+package boot;
+
+import org.joml.Matrix4f;
+import org.joml.Random;
+import org.joml.Vector3f;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static boot.Main.*;
+
+// Measures the CPU time of a frame's jobs against the number of worker threads. Copies of the model are scattered
+// through the light bounds to give the draw list work, and the camera follows the benchmark path.
+// Prints the frame time for every thread count and how long each stage of the frame took with the most threads,
+// both from its first job starting to its last job ending and summed over its jobs.
+// Usage: FrameBenchmark [instances] [frames] [threadCounts, e.g. 1,2,4,8] [model]
+public class FrameBenchmark {
+    static final int WARMUP_FRAMES = 10;
+
+    public static void main(String[] args) {
+        int instances = args.length > 0 ? Integer.parseInt(args[0]) : 2048;
+        int frames = args.length > 1 ? Integer.parseInt(args[1]) : 240;
+        int[] threadCounts = args.length > 2 ? parseThreadCounts(args[2]) : defaultThreadCounts();
+        String modelPath = args.length > 3 ? args[3] : GoldenImages.DEFAULT_MODEL;
+
+        List<CpuMesh> meshes = CpuMesh.loadModel(modelPath);
+        CameraPath path = BenchmarkRunner.defaultPath(true);
+        System.out.printf("%d meshes, %d lights, %d frames, %d cores%n", instances * meshes.size(), NUM_LIGHTS, frames,
+                Runtime.getRuntime().availableProcessors());
+
+        double baseline = 0.0;
+        FrameJobs last = null;
+        Map<String, long[]> stages = new LinkedHashMap<>();
+        for (int threads : threadCounts) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            Camera camera = new Camera(new Vector3f(), new Vector3f(0.0f, 1.0f, 0.0f));
+            Matrix4f projection = new Matrix4f().perspective((float) Math.toRadians(camera.zoom),
+                    SCREEN_SIZE.x / SCREEN_SIZE.y, NEAR_PLANE, FAR_PLANE);
+            FrameJobs frame = new FrameJobs(pool, camera, projection, RandomLights(NUM_LIGHTS, LIGHT_RADIUS, 1),
+                    scatter(meshes, instances), new ShadowAtlas(8192, 32, 512, 64),
+                    (int) SCREEN_SIZE.x, (int) SCREEN_SIZE.y, 16);
+            float[] time = new float[1];
+            frame.setCameraUpdate(() -> path.apply(time[0], camera));
+
+            FrameStatistics statistics = new FrameStatistics();
+            stages.clear();
+            for (int i = -WARMUP_FRAMES; i < frames; i++) {
+                time[0] = Math.max(0, i) * path.getDuration() / frames;
+                frame.execute();
+                if (i >= 0) {
+                    statistics.addFrame(frame.getGraph().getDuration());
+                    addStages(frame.getGraph(), stages);
+                }
+            }
+            pool.shutdown();
+
+            double mean = statistics.getMeanMilliseconds();
+            if (baseline == 0.0) {
+                baseline = mean;
+            }
+            System.out.printf(Locale.ROOT, "%2d threads  mean %7.3f ms, p95 %7.3f ms, speedup %.2fx%n", threads, mean,
+                    statistics.getPercentileMilliseconds(95), baseline / mean);
+            last = frame;
+        }
+
+        System.out.printf("%nStages with %d threads, mean per frame%n", threadCounts[threadCounts.length - 1]);
+        for (Map.Entry<String, long[]> stage : stages.entrySet()) {
+            System.out.printf(Locale.ROOT, "  %-16s span %7.3f ms, work %7.3f ms%n", stage.getKey(),
+                    stage.getValue()[0] / 1e6 / frames, stage.getValue()[1] / 1e6 / frames);
+        }
+        System.out.printf("%d of %d meshes visible in the last frame, %d shadow views%n",
+                last.getDrawList().getVisibleCount(), last.getDrawList().getItemCount(), last.getShadowViews().size());
+    }
+
+    // Places copies of the model at random positions and rotations inside the light bounds
+    static DrawList scatter(List<CpuMesh> meshes, int instances) {
+        DrawList drawList = new DrawList();
+        Random rand = new Random(3);
+        Vector3f[] min = new Vector3f[meshes.size()];
+        Vector3f[] max = new Vector3f[meshes.size()];
+        for (int i = 0; i < meshes.size(); i++) {
+            min[i] = new Vector3f();
+            max[i] = new Vector3f();
+            meshes.get(i).getBounds(min[i], max[i]);
+        }
+        for (int instance = 0; instance < instances; instance++) {
+            Vector3f position = new Vector3f();
+            for (int j = 0; j < 3; j++) {
+                float low = LIGHT_MIN_BOUNDS.get(j);
+                float high = LIGHT_MAX_BOUNDS.get(j);
+                position.setComponent(j, rand.nextFloat() * (high - low) + low);
+            }
+            Matrix4f model = new Matrix4f().translate(position).rotateY(rand.nextFloat() * 6.2831855f)
+                    .scale(GoldenImages.MODEL_SCALE);
+            for (int i = 0; i < meshes.size(); i++) {
+                drawList.add(i, model, min[i], max[i]);
+            }
+        }
+        return drawList;
+    }
+
+    // Adds the span and summed time of every stage of the last frame. Stages are jobs grouped by name
+    static void addStages(TaskGraph graph, Map<String, long[]> stages) {
+        Map<String, long[]> frame = new LinkedHashMap<>();
+        for (TaskGraph.Job job : graph.getJobs()) {
+            long[] stage = frame.computeIfAbsent(job.getGroup(), group -> new long[]{Long.MAX_VALUE, 0, 0});
+            stage[0] = Math.min(stage[0], job.getStartTime());
+            stage[1] = Math.max(stage[1], job.getEndTime());
+            stage[2] += job.getDuration();
+        }
+        for (Map.Entry<String, long[]> stage : frame.entrySet()) {
+            long[] total = stages.computeIfAbsent(stage.getKey(), group -> new long[2]);
+            total[0] += stage.getValue()[1] - stage.getValue()[0];
+            total[1] += stage.getValue()[2];
+        }
+    }
+
+    static int[] defaultThreadCounts() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int count = 32 - Integer.numberOfLeadingZeros(cores) + (Integer.bitCount(cores) == 1 ? 0 : 1);
+        int[] threadCounts = new int[count];
+        for (int i = 0; i < count; i++) {
+            threadCounts[i] = Math.min(cores, 1 << i);
+        }
+        return threadCounts;
+    }
+
+    static int[] parseThreadCounts(String value) {
+        String[] items = value.split(",");
+        int[] threadCounts = new int[items.length];
+        for (int i = 0; i < items.length; i++) {
+            threadCounts[i] = Integer.parseInt(items[i].trim());
+        }
+        return threadCounts;
+    }
+}
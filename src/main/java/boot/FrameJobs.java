@@ -0,0 +1,153 @@
+package boot;
+
+import org.joml.Matrix4f;
+import org.joml.Vector4f;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static boot.Main.*;
+
+// The CPU work of a frame declared as a task graph:
+//   camera          updates the camera, the tile planes and prepares the draw list
+//   light culling   culls ranges of tiles, after camera
+//   draw list       culls ranges of meshes, then sorts them front to back, after camera
+//   shadow atlas    picks the shadow views to render, after camera
+//   pack lights     copies the lights into the layout of the light buffer
+//   submit          pinned to the thread running the frame for the GL calls, after all of the above
+//   animate lights  moves the lights for the next frame once nothing reads them, overlapping submit
+// Tile depth bounds come from the previous frame's depth pre-pass and default to the whole depth range
+public class FrameJobs {
+    // Tiles and meshes per job, small enough to spread over the cores but large enough to keep scheduling cheap
+    static final int TILE_GRAIN = 256;
+    static final int DRAW_GRAIN = 256;
+    // Floats per light in the light buffer: color, position and padding with the radius
+    static final int LIGHT_FLOATS = 12;
+
+    final TaskGraph graph;
+    final Camera camera;
+    final Matrix4f projection;
+    final List<PointLight> lights;
+    final List<SpotLight> spotLights = new ArrayList<>();
+    final LightCulling culling;
+    final DrawList drawList;
+    final ShadowAtlas shadowAtlas;
+    final float[] minDepth;
+    final float[] maxDepth;
+    final float[] lightData;
+
+    final Matrix4f view = new Matrix4f();
+    List<ShadowAtlas.ShadowView> shadowViews = new ArrayList<>();
+    Runnable cameraUpdate = () -> {
+    };
+    Runnable submit = () -> {
+    };
+
+    // shadowAtlas may be null to render without shadows
+    public FrameJobs(ForkJoinPool pool, Camera camera, Matrix4f projection, List<PointLight> lights, DrawList drawList,
+                     ShadowAtlas shadowAtlas, int width, int height, int tileSize) {
+        this.camera = camera;
+        this.projection = projection;
+        this.lights = lights;
+        this.drawList = drawList;
+        this.shadowAtlas = shadowAtlas;
+        culling = new LightCulling(width, height, tileSize);
+        minDepth = new float[culling.getNumberOfTiles()];
+        maxDepth = new float[culling.getNumberOfTiles()];
+        Arrays.fill(minDepth, NEAR_PLANE);
+        Arrays.fill(maxDepth, FAR_PLANE);
+        lightData = new float[lights.size() * LIGHT_FLOATS];
+
+        graph = new TaskGraph(pool);
+        TaskGraph.Job cameraJob = graph.add("camera", this::updateCamera);
+        TaskGraph.Job cullJob = graph.addParallelFor("light culling", culling.getNumberOfTiles(), TILE_GRAIN,
+                this::cullTiles, cameraJob);
+        TaskGraph.Job drawJob = graph.addParallelFor("draw list", drawList.getItemCount(), DRAW_GRAIN,
+                drawList::buildRange, cameraJob);
+        TaskGraph.Job sortJob = graph.add("sort draw list", drawList::merge, drawJob);
+        TaskGraph.Job shadowJob = shadowAtlas != null
+                ? graph.add("shadow atlas", () -> shadowViews = shadowAtlas.update(view, projection, height, lights),
+                cameraJob)
+                : cameraJob;
+        TaskGraph.Job packJob = graph.add("pack lights", this::packLights);
+        graph.addPinned("submit", () -> submit.run(), cullJob, sortJob, shadowJob, packJob);
+        graph.add("animate lights", () -> UpdateLights(lights), cullJob, shadowJob, packJob);
+    }
+
+    // Called at the start of every frame before the view matrix is read, e.g. to handle input or replay a path
+    public void setCameraUpdate(Runnable cameraUpdate) {
+        this.cameraUpdate = cameraUpdate;
+    }
+
+    // GL submission of the frame, runs on the thread calling execute
+    public void setSubmit(Runnable submit) {
+        this.submit = submit;
+    }
+
+    // Runs the frame's jobs and returns once the frame has been submitted and the lights animated
+    public void execute() {
+        graph.execute();
+    }
+
+    public TaskGraph getGraph() {
+        return graph;
+    }
+
+    public LightCulling getCulling() {
+        return culling;
+    }
+
+    public DrawList getDrawList() {
+        return drawList;
+    }
+
+    public List<ShadowAtlas.ShadowView> getShadowViews() {
+        return shadowViews;
+    }
+
+    // Light buffer contents of this frame, LIGHT_FLOATS per light
+    public float[] getLightData() {
+        return lightData;
+    }
+
+    // Linear depth bounds per tile used by light culling
+    public float[] getMinDepth() {
+        return minDepth;
+    }
+
+    public float[] getMaxDepth() {
+        return maxDepth;
+    }
+
+    private void updateCamera() {
+        cameraUpdate.run();
+        view.set(camera.getViewMatrix());
+        culling.setView(view, projection);
+        drawList.begin(view, projection, DRAW_GRAIN);
+    }
+
+    private void cullTiles(int first, int last) {
+        Vector4f[] depthPlanes = LightCulling.newDepthPlanes();
+        for (int tile = first; tile < last; tile++) {
+            culling.cullTile(tile, minDepth[tile], maxDepth[tile], lights, spotLights, false, depthPlanes);
+        }
+    }
+
+    private void packLights() {
+        for (int i = 0; i < lights.size(); i++) {
+            PointLight light = lights.get(i);
+            put(light.color, i * LIGHT_FLOATS);
+            put(light.position, i * LIGHT_FLOATS + 4);
+            put(light.paddingAndRadius, i * LIGHT_FLOATS + 8);
+        }
+    }
+
+    private void put(Vector4f value, int offset) {
+        lightData[offset] = value.x;
+        lightData[offset + 1] = value.y;
+        lightData[offset + 2] = value.z;
+        lightData[offset + 3] = value.w;
+    }
+}
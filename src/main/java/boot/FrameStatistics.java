@@ -0,0 +1,89 @@
+package boot;
+
+import java.util.Arrays;
+
+// Frame times and lights per tile collected over one benchmark case
+public class FrameStatistics {
+    // Bucket 0 counts empty tiles, bucket i counts tiles with 2^(i - 1) to 2^i - 1 lights.
+    // The last bucket holds full tiles of MAX_LIGHTS_PER_TILE
+    public static final int HISTOGRAM_BUCKETS = 32 - Integer.numberOfLeadingZeros(LightCulling.MAX_LIGHTS_PER_TILE) + 1;
+
+    long[] frameTimes = new long[256];
+    int frameCount;
+    final long[] lightsPerTileHistogram = new long[HISTOGRAM_BUCKETS];
+    long tileCount;
+    long lightsInTiles;
+    int maxLightsPerTile;
+    double recomputedFraction = 1.0;
+
+    public void addFrame(long nanoseconds) {
+        if (frameCount == frameTimes.length) {
+            frameTimes = Arrays.copyOf(frameTimes, frameTimes.length * 2);
+        }
+        frameTimes[frameCount++] = nanoseconds;
+    }
+
+    public void addTiles(LightCulling culling) {
+        for (int tile = 0; tile < culling.getNumberOfTiles(); tile++) {
+            int count = culling.getVisibleCount(tile);
+            lightsPerTileHistogram[32 - Integer.numberOfLeadingZeros(count)]++;
+            lightsInTiles += count;
+            maxLightsPerTile = Math.max(maxLightsPerTile, count);
+        }
+        tileCount += culling.getNumberOfTiles();
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public double getMeanMilliseconds() {
+        long total = 0;
+        for (int i = 0; i < frameCount; i++) {
+            total += frameTimes[i];
+        }
+        return frameCount == 0 ? 0.0 : total / 1e6 / frameCount;
+    }
+
+    // Nearest rank percentile of the frame times, p between 0 and 100
+    public double getPercentileMilliseconds(double p) {
+        if (frameCount == 0) {
+            return 0.0;
+        }
+        long[] sorted = Arrays.copyOf(frameTimes, frameCount);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(p / 100.0 * frameCount);
+        return sorted[Math.max(0, Math.min(frameCount - 1, rank - 1))] / 1e6;
+    }
+
+    public double getAverageLightsPerTile() {
+        return tileCount == 0 ? 0.0 : (double) lightsInTiles / tileCount;
+    }
+
+    public int getMaxLightsPerTile() {
+        return maxLightsPerTile;
+    }
+
+    // Fraction of tiles culled per frame, below 1 with incremental culling
+    public double getRecomputedFraction() {
+        return recomputedFraction;
+    }
+
+    public void setRecomputedFraction(double recomputedFraction) {
+        this.recomputedFraction = recomputedFraction;
+    }
+
+    public long getHistogramBucket(int bucket) {
+        return lightsPerTileHistogram[bucket];
+    }
+
+    public static String getBucketLabel(int bucket) {
+        if (bucket <= 1) {
+            return Integer.toString(bucket);
+        }
+        if (bucket == HISTOGRAM_BUCKETS - 1) {
+            return Integer.toString(LightCulling.MAX_LIGHTS_PER_TILE);
+        }
+        return (1 << (bucket - 1)) + "-" + ((1 << bucket) - 1);
+    }
+}
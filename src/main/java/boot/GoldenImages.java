@@ -0,0 +1,163 @@
+package boot;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static boot.Main.*;
+
+// Renders fixed camera views of a bundled model with the software renderer, to write golden images
+// or to check the current pipeline against them pixel for pixel within a tolerance.
+// Usage:
+//   GoldenImages write <directory> [model]
+//   GoldenImages check <directory> [model] [tolerance]
+//   GoldenImages bench [model]
+// The reference images of VIEWS for the default model are in src/test/resources/golden and are checked by
+// mvn -P checks test. Rewrite them with GoldenImages write src/test/resources/golden after intended changes
+public class GoldenImages {
+    public static final String DEFAULT_MODEL = "src/main/resources/crytek-sponza/banner.obj";
+    public static final int WIDTH = 960;
+    public static final int HEIGHT = 540;
+    public static final int TILE_SIZE = 16;
+    public static final float MODEL_SCALE = 0.1f;
+    public static final long LIGHT_SEED = 1;
+    // Fraction of pixels allowed to differ by more than the tolerance
+    public static final double ALLOWED_MISMATCH = 0.001;
+
+    // Position and yaw / pitch in degrees of each view
+    static final float[][] VIEWS = {
+            {-40.0f, 10.0f, 0.0f, 0.0f, 0.0f},
+            {-30.0f, 0.0f, -60.0f, 60.0f, 5.0f},
+            {60.0f, 5.0f, 10.0f, 180.0f, -10.0f},
+            {-40.0f, 10.0f, 0.0f, 0.0f, 0.0f},
+    };
+    // Views lit by the spot lights only, so the cone culling and falloff are checked on their own
+    static final int FIRST_SPOT_VIEW = 3;
+
+    public static class ImageDiff {
+        int maxDifference;
+        int mismatchedPixels;
+        int totalPixels;
+
+        public boolean passes() {
+            return mismatchedPixels <= totalPixels * ALLOWED_MISMATCH;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: GoldenImages write|check <directory> [model] [tolerance] | bench [model]");
+            System.exit(-1);
+        }
+
+        if (args[0].equals("bench")) {
+            bench(args.length > 1 ? args[1] : DEFAULT_MODEL);
+            return;
+        }
+
+        File directory = new File(args[1]);
+        String model = args.length > 2 ? args[2] : DEFAULT_MODEL;
+        int tolerance = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+
+        List<BufferedImage> images = renderViews(CpuMesh.loadModel(model), ForkJoinPool.commonPool());
+        boolean passed = true;
+        for (int i = 0; i < images.size(); i++) {
+            File file = new File(directory, "view" + i + ".png");
+            if (args[0].equals("write")) {
+                directory.mkdirs();
+                ImageIO.write(images.get(i), "png", file);
+                System.out.println("Wrote " + file);
+            } else {
+                ImageDiff diff = compare(ImageIO.read(file), images.get(i), tolerance);
+                System.out.printf("%s: max difference %d, %d of %d pixels over tolerance%n",
+                        file, diff.maxDifference, diff.mismatchedPixels, diff.totalPixels);
+                passed &= diff.passes();
+            }
+        }
+
+        if (!passed) {
+            System.err.println("Golden image check failed");
+            System.exit(1);
+        }
+    }
+
+    public static List<BufferedImage> renderViews(List<CpuMesh> meshes, ForkJoinPool pool) {
+        SoftwareRenderer renderer = new SoftwareRenderer(WIDTH, HEIGHT, TILE_SIZE, pool);
+        List<PointLight> pointLights = RandomLights(NUM_LIGHTS, LIGHT_RADIUS, LIGHT_SEED);
+        // As many spot lights as point lights, fewer leave most of the model outside every cone
+        List<SpotLight> spotLights = RandomSpotLights(NUM_LIGHTS, SPOT_LIGHT_RADIUS, SPOT_LIGHT_ANGLE, LIGHT_SEED);
+        List<PointLight> noPointLights = new ArrayList<>();
+        List<SpotLight> noSpotLights = new ArrayList<>();
+        Matrix4f model = new Matrix4f().scale(MODEL_SCALE);
+        Matrix4f projection = new Matrix4f().perspective((float) Math.toRadians(Camera.ZOOM),
+                (float) WIDTH / HEIGHT, NEAR_PLANE, FAR_PLANE);
+
+        Camera camera = new Camera(new Vector3f(), new Vector3f(0.0f, 1.0f, 0.0f));
+        List<BufferedImage> images = new ArrayList<>();
+        for (int i = 0; i < VIEWS.length; i++) {
+            float[] view = VIEWS[i];
+            boolean spot = i >= FIRST_SPOT_VIEW;
+            camera.setPose(new Vector3f(view[0], view[1], view[2]), view[3], view[4]);
+            images.add(renderer.render(meshes, model, camera.getViewMatrix(), projection, camera.getPosition(),
+                    spot ? noPointLights : pointLights, spot ? spotLights : noSpotLights, exposure));
+        }
+        return images;
+    }
+
+    // Counts the pixels where any channel differs by more than tolerance
+    public static ImageDiff compare(BufferedImage expected, BufferedImage actual, int tolerance) {
+        if (expected.getWidth() != actual.getWidth() || expected.getHeight() != actual.getHeight()) {
+            throw new IllegalArgumentException("Image sizes differ");
+        }
+
+        ImageDiff diff = new ImageDiff();
+        diff.totalPixels = expected.getWidth() * expected.getHeight();
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                int a = expected.getRGB(x, y);
+                int b = actual.getRGB(x, y);
+                int pixelDifference = 0;
+                for (int shift = 0; shift < 24; shift += 8) {
+                    pixelDifference = Math.max(pixelDifference, Math.abs(((a >> shift) & 0xFF) - ((b >> shift) & 0xFF)));
+                }
+                diff.maxDifference = Math.max(diff.maxDifference, pixelDifference);
+                if (pixelDifference > tolerance) {
+                    diff.mismatchedPixels++;
+                }
+            }
+        }
+        return diff;
+    }
+
+    // Times the views with an increasing number of worker threads
+    static void bench(String model) {
+        List<CpuMesh> meshes = CpuMesh.loadModel(model);
+        int processors = Runtime.getRuntime().availableProcessors();
+        int threads = 1;
+        while (true) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            // Warm up
+            renderViews(meshes, pool);
+            long start = System.nanoTime();
+            int frames = 0;
+            for (int i = 0; i < 5; i++) {
+                frames += renderViews(meshes, pool).size();
+            }
+            double milliseconds = (System.nanoTime() - start) / 1e6 / frames;
+            System.out.printf("%2d threads: %.1f ms per frame%n", threads, milliseconds);
+            pool.shutdown();
+
+            if (threads == processors) {
+                break;
+            }
+            threads = Math.min(threads * 2, processors);
+        }
+    }
+}
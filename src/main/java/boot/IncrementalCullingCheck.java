@@ -0,0 +1,237 @@
+package boot;
+
+import org.joml.Matrix4f;
+import org.joml.Random;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static boot.Main.*;
+
+// Randomized check that incremental light culling always produces the same light lists as a full rebuild.
+// Each trial replays a short sequence of frames with random lights, spot lights, tile sizes and depth bounds,
+// moving random subsets of the lights, changing the depth of random tiles and now and then moving the camera,
+// and compares every frame against LightCulling. The compute shader path is replayed alongside: updateLights and
+// putLightDirty once per frame, tiles culled again only on a rebuild, a dirty flag or a depth change, and its light
+// lists must match too. Still frames must not rebuild or dirty any tile.
+// Exits with 1 on the first mismatch, so it can fail a build.
+// Usage: IncrementalCullingCheck [trials] [seed]
+public class IncrementalCullingCheck {
+    static final int WIDTH = 640;
+    static final int HEIGHT = 360;
+    static final int FRAMES = 20;
+    static final int[] TILE_SIZES = {8, 16, 32};
+
+    // The light_culling compute shader's incremental path on the CPU, driven like Main.UploadTileLightDirty
+    static class ShaderPath {
+        final IncrementalLightCulling incremental;
+        final IntBuffer flags;
+        // Depth bounds each tile was last culled with, the tile depth bounds buffer
+        final float[] minDepth;
+        final float[] maxDepth;
+        final Vector4f[] depthPlanes = LightCulling.newDepthPlanes();
+        // The CPU path replayed over the same frames
+        IncrementalLightCulling cpuPath;
+        long frames;
+        long reusedTiles;
+
+        ShaderPath(int tileSize) {
+            incremental = new IncrementalLightCulling(new LightCulling(WIDTH, HEIGHT, tileSize));
+            int numberOfTiles = incremental.culling.getNumberOfTiles();
+            flags = IntBuffer.allocate(numberOfTiles);
+            minDepth = new float[numberOfTiles];
+            maxDepth = new float[numberOfTiles];
+            Arrays.fill(minDepth, Float.NaN);
+            Arrays.fill(maxDepth, Float.NaN);
+        }
+
+        // Returns whether the frame was a full rebuild
+        boolean frame(Matrix4f view, Matrix4f projection, float[] tileMinDepth, float[] tileMaxDepth,
+                      List<PointLight> pointLights, List<SpotLight> spotLights) {
+            boolean fullRebuild = incremental.updateLights(view, projection, pointLights, spotLights);
+            incremental.putLightDirty(flags);
+            frames++;
+            for (int tile = 0; tile < minDepth.length; tile++) {
+                boolean skipTile = !fullRebuild && flags.get(tile) == 0
+                        && minDepth[tile] == tileMinDepth[tile] && maxDepth[tile] == tileMaxDepth[tile];
+                minDepth[tile] = tileMinDepth[tile];
+                maxDepth[tile] = tileMaxDepth[tile];
+                if (skipTile) {
+                    reusedTiles++;
+                } else {
+                    incremental.culling.cullTile(tile, tileMinDepth[tile], tileMaxDepth[tile], pointLights, spotLights,
+                            false, depthPlanes);
+                }
+            }
+            return fullRebuild;
+        }
+
+        int dirtyFlags() {
+            int count = 0;
+            for (int tile = 0; tile < minDepth.length; tile++) {
+                count += flags.get(tile);
+            }
+            return count;
+        }
+
+        void compare(LightCulling reference) {
+            LightCulling culling = incremental.culling;
+            for (int tile = 0; tile < culling.getNumberOfTiles(); tile++) {
+                int count = reference.getVisibleCount(tile);
+                boolean same = count == culling.getVisibleCount(tile);
+                for (int i = 0; same && i < count; i++) {
+                    same = reference.getVisibleIndex(tile, i) == culling.getVisibleIndex(tile, i);
+                }
+                if (!same) {
+                    throw new IllegalStateException("Compute shader path differs from a full rebuild in tile " + tile);
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        int trials = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+
+        long frames = 0;
+        long recomputedTiles = 0;
+        long tiles = 0;
+        long shaderReusedTiles = 0;
+        long shaderTiles = 0;
+        for (int trial = 0; trial < trials; trial++) {
+            try {
+                ShaderPath shader = runTrial(new Random(seed + trial));
+                int numberOfTiles = shader.cpuPath.culling.getNumberOfTiles();
+                frames += FRAMES;
+                recomputedTiles += Math.round(shader.cpuPath.getRecomputedFraction() * FRAMES * numberOfTiles);
+                tiles += (long) FRAMES * numberOfTiles;
+                shaderReusedTiles += shader.reusedTiles;
+                shaderTiles += shader.frames * numberOfTiles;
+            } catch (IllegalStateException e) {
+                System.err.printf("Trial %d (seed %d): %s%n", trial, seed + trial, e.getMessage());
+                System.exit(1);
+            }
+        }
+        System.out.printf("%d trials, %d frames match a full rebuild, %.1f%% tiles culled again, "
+                + "%.1f%% on the compute shader path%n", trials, frames, 100.0 * recomputedTiles / tiles,
+                100.0 - 100.0 * shaderReusedTiles / shaderTiles);
+    }
+
+    static ShaderPath runTrial(Random rand) {
+        int tileSize = TILE_SIZES[rand.nextInt(TILE_SIZES.length)];
+        LightCulling culling = new LightCulling(WIDTH, HEIGHT, tileSize);
+        ShaderPath shader = new ShaderPath(tileSize);
+        IncrementalLightCulling incremental = new IncrementalLightCulling(culling);
+        incremental.setVerify(true);
+        shader.cpuPath = incremental;
+        // Also exercise the dirty path with many dirty tiles instead of always falling back to a rebuild
+        incremental.setMaxDirtyFraction(rand.nextFloat() < 0.5f ? 1.0f : 0.5f);
+
+        float radius = 2.0f + rand.nextFloat() * 40.0f;
+        List<PointLight> pointLights = RandomLights(16 + rand.nextInt(496), radius, rand.nextInt(1 << 20));
+        List<SpotLight> spotLights = new ArrayList<>();
+        int spotLightCount = rand.nextInt(33);
+        for (int i = 0; i < spotLightCount; i++) {
+            SpotLight light = new SpotLight();
+            light.color = new Vector4f(1.0f);
+            light.positionAndRadius = new Vector4f(randomPosition(rand), 5.0f + rand.nextFloat() * 60.0f);
+            light.directionAndCosAngle = new Vector4f(randomDirection(rand),
+                    (float) Math.cos(Math.toRadians(5.0f + rand.nextFloat() * 80.0f)));
+            spotLights.add(light);
+        }
+
+        Matrix4f projection = new Matrix4f().perspective((float) Math.toRadians(Camera.ZOOM),
+                (float) WIDTH / HEIGHT, NEAR_PLANE, FAR_PLANE);
+        Matrix4f view = randomView(rand);
+
+        float[] minDepth = new float[culling.getNumberOfTiles()];
+        float[] maxDepth = new float[culling.getNumberOfTiles()];
+        for (int tile = 0; tile < minDepth.length; tile++) {
+            randomDepthBounds(rand, minDepth, maxDepth, tile);
+        }
+
+        for (int frame = 0; frame < FRAMES; frame++) {
+            // Move a random subset of the lights, some of them far
+            int moving = rand.nextInt(Math.max(1, pointLights.size() / 8));
+            for (int i = 0; i < moving; i++) {
+                Vector4f position = pointLights.get(rand.nextInt(pointLights.size())).position;
+                float step = rand.nextFloat() < 0.1f ? 50.0f : 2.0f;
+                position.add((rand.nextFloat() - 0.5f) * step, (rand.nextFloat() - 0.5f) * step,
+                        (rand.nextFloat() - 0.5f) * step, 0.0f);
+            }
+            if (!spotLights.isEmpty() && rand.nextFloat() < 0.5f) {
+                SpotLight light = spotLights.get(rand.nextInt(spotLights.size()));
+                light.directionAndCosAngle.set(randomDirection(rand), light.directionAndCosAngle.w);
+            }
+            // Change the depth of a few tiles as if geometry moved
+            int changedTiles = rand.nextInt(minDepth.length / 10 + 1);
+            for (int i = 0; i < changedTiles; i++) {
+                randomDepthBounds(rand, minDepth, maxDepth, rand.nextInt(minDepth.length));
+            }
+            if (rand.nextFloat() < 0.2f) {
+                view = randomView(rand);
+            }
+            if (rand.nextFloat() < 0.05f) {
+                incremental.cameraCut();
+                shader.incremental.cameraCut();
+            }
+
+            // Throws when a tile differs from the full rebuild
+            incremental.cull(view, projection, minDepth, maxDepth, pointLights, spotLights);
+            shader.frame(view, projection, minDepth, maxDepth, pointLights, spotLights);
+            shader.compare(culling);
+        }
+
+        // Nothing moved: no rebuild, no dirty tile and every tile reused
+        long reused = shader.reusedTiles;
+        if (shader.frame(view, projection, minDepth, maxDepth, pointLights, spotLights) || shader.dirtyFlags() != 0
+                || shader.reusedTiles - reused != minDepth.length) {
+            throw new IllegalStateException("A still frame culled tiles again on the compute shader path");
+        }
+        shader.compare(culling);
+        // A camera cut rebuilds once and the frame after it is still again
+        shader.incremental.cameraCut();
+        if (!shader.frame(view, projection, minDepth, maxDepth, pointLights, spotLights)
+                || shader.frame(view, projection, minDepth, maxDepth, pointLights, spotLights)) {
+            throw new IllegalStateException("A camera cut did not rebuild exactly one frame");
+        }
+        shader.compare(culling);
+        return shader;
+    }
+
+    static Vector3f randomPosition(Random rand) {
+        Vector3f position = new Vector3f();
+        for (int j = 0; j < 3; j++) {
+            float min = LIGHT_MIN_BOUNDS.get(j);
+            float max = LIGHT_MAX_BOUNDS.get(j);
+            position.setComponent(j, rand.nextFloat() * (max - min) + min);
+        }
+        return position;
+    }
+
+    static Vector3f randomDirection(Random rand) {
+        return new Vector3f(rand.nextFloat() - 0.5f, rand.nextFloat() - 0.5f, rand.nextFloat() - 0.5f)
+                .add(0.0f, 1e-3f, 0.0f).normalize();
+    }
+
+    // Looks from a random point in or around the light bounds, so some lights are close to or behind the eye
+    static Matrix4f randomView(Random rand) {
+        Vector3f eye = randomPosition(rand).mul(1.2f);
+        Vector3f target = randomPosition(rand);
+        if (target.distance(eye) < 1.0f) {
+            target.add(10.0f, 0.0f, 0.0f);
+        }
+        return new Matrix4f().lookAt(eye, target, new Vector3f(0.0f, 1.0f, 0.0f));
+    }
+
+    static void randomDepthBounds(Random rand, float[] minDepth, float[] maxDepth, int tile) {
+        float a = NEAR_PLANE + rand.nextFloat() * (FAR_PLANE - NEAR_PLANE);
+        float b = NEAR_PLANE + rand.nextFloat() * (FAR_PLANE - NEAR_PLANE);
+        minDepth[tile] = Math.min(a, b);
+        maxDepth[tile] = Math.max(a, b);
+    }
+}
@@ -0,0 +1,283 @@
+package boot;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+// Temporally coherent light culling on top of LightCulling. Instead of culling every tile each frame,
+// only tiles whose depth bounds changed or that a moved light covers before or after the move are culled again,
+// the other tiles keep last frame's light lists.
+//
+// A light's footprint is the rectangle of tiles covered by the projection of its bounding box in view space,
+// which contains every tile that can pass the side plane tests, so the result always matches a full rebuild.
+// Tile frustums are world space planes, so any camera change is treated as a camera cut and rebuilds everything,
+// as does a change in light count or more dirty tiles than maxDirtyFraction. A moving light whose sphere crosses
+// the eye plane can pass the plane tests of any tile and dirties the whole grid.
+// This only pays off while the camera is still: on the fly-through path nearly every frame is a full rebuild
+// (about 99% of the tiles culled again), compare incremental.properties with incremental-flythrough.properties.
+// IncrementalCullingCheck compares it against full rebuilds over random frames
+public class IncrementalLightCulling {
+    // Floats stored per light to detect movement: position and radius, then direction and cosine for spot lights
+    static final int LIGHT_STATE = 8;
+
+    final LightCulling culling;
+    // Full rebuild to check against, only created when verifying
+    private LightCulling reference;
+
+    private final Matrix4f view = new Matrix4f();
+    private final Matrix4f projection = new Matrix4f();
+    private boolean valid;
+    private boolean forceRebuild;
+
+    private float[] previousMinDepth;
+    private float[] previousMaxDepth;
+    private float[] lightState = new float[0];
+    // Tile rectangle per light: first x, first y, last x, last y. Empty when first x > last x
+    private int[] footprints = new int[0];
+    private int pointLightCount;
+    private int spotLightCount;
+
+    final boolean[] lightDirty;
+    final boolean[] dirty;
+    float maxDirtyFraction = 0.5f;
+    boolean verify;
+
+    private int recomputedTiles;
+    private boolean lastFullRebuild;
+    private long totalRecomputedTiles;
+    private long totalTiles;
+
+    public IncrementalLightCulling(LightCulling culling) {
+        this.culling = culling;
+        lightDirty = new boolean[culling.getNumberOfTiles()];
+        dirty = new boolean[culling.getNumberOfTiles()];
+    }
+
+    public LightCulling getCulling() {
+        return culling;
+    }
+
+    // Fraction of tiles above which the whole grid is rebuilt instead
+    public void setMaxDirtyFraction(float maxDirtyFraction) {
+        this.maxDirtyFraction = maxDirtyFraction;
+    }
+
+    // Checks every frame against a full rebuild and throws if they differ. Only meant for testing
+    public void setVerify(boolean verify) {
+        this.verify = verify;
+    }
+
+    // Forces a full rebuild on the next frame
+    public void cameraCut() {
+        forceRebuild = true;
+    }
+
+    // Tracks the lights that moved since the last frame and marks the tiles they covered or now cover in lightDirty.
+    // Returns true when the next cull has to rebuild every tile. This part does not need the depth bounds,
+    // so the flags can also be uploaded for the compute shader to skip clean tiles. The camera and light state is
+    // committed here, so calling it once per frame without cull is enough for the compute shader path
+    public boolean updateLights(Matrix4f view, Matrix4f projection, List<Main.PointLight> pointLights,
+                                List<Main.SpotLight> spotLights) {
+        boolean rebuild = !valid || forceRebuild || !this.view.equals(view) || !this.projection.equals(projection)
+                || pointLights.size() != pointLightCount || spotLights.size() != spotLightCount;
+
+        if (rebuild) {
+            this.view.set(view);
+            this.projection.set(projection);
+            culling.setView(view, projection);
+            pointLightCount = pointLights.size();
+            spotLightCount = spotLights.size();
+            lightState = new float[(pointLightCount + spotLightCount) * LIGHT_STATE];
+            footprints = new int[(pointLightCount + spotLightCount) * 4];
+        }
+
+        Arrays.fill(lightDirty, false);
+        for (int i = 0; i < pointLightCount; i++) {
+            Main.PointLight light = pointLights.get(i);
+            updateLight(i, light.position, light.paddingAndRadius.w, null, rebuild);
+        }
+        for (int i = 0; i < spotLightCount; i++) {
+            Main.SpotLight light = spotLights.get(i);
+            updateLight(pointLightCount + i, light.positionAndRadius, light.positionAndRadius.w,
+                    light.directionAndCosAngle, rebuild);
+        }
+        valid = true;
+        forceRebuild = false;
+        return rebuild;
+    }
+
+    // Writes one flag per tile from the last updateLights, 1 for tiles a moved light covers, for the compute shader
+    public void putLightDirty(IntBuffer flags) {
+        for (int tile = 0; tile < lightDirty.length; tile++) {
+            flags.put(tile, lightDirty[tile] ? 1 : 0);
+        }
+    }
+
+    // Culls the tiles that changed since the last frame. minDepth and maxDepth hold the linear depth bounds of each tile
+    public void cull(Matrix4f view, Matrix4f projection, float[] minDepth, float[] maxDepth,
+                     List<Main.PointLight> pointLights, List<Main.SpotLight> spotLights) {
+        boolean rebuild = updateLights(view, projection, pointLights, spotLights);
+        int numberOfTiles = culling.getNumberOfTiles();
+
+        int dirtyCount = 0;
+        for (int tile = 0; tile < numberOfTiles; tile++) {
+            dirty[tile] = rebuild || lightDirty[tile]
+                    || minDepth[tile] != previousMinDepth[tile] || maxDepth[tile] != previousMaxDepth[tile];
+            if (dirty[tile]) {
+                dirtyCount++;
+            }
+        }
+        if (dirtyCount > numberOfTiles * maxDirtyFraction) {
+            rebuild = true;
+            Arrays.fill(dirty, true);
+            dirtyCount = numberOfTiles;
+        }
+
+        Vector4f[] depthPlanes = LightCulling.newDepthPlanes();
+        for (int tile = 0; tile < numberOfTiles; tile++) {
+            if (dirty[tile]) {
+                culling.cullTile(tile, minDepth[tile], maxDepth[tile], pointLights, spotLights, false, depthPlanes);
+            }
+        }
+
+        previousMinDepth = Arrays.copyOf(minDepth, numberOfTiles);
+        previousMaxDepth = Arrays.copyOf(maxDepth, numberOfTiles);
+        lastFullRebuild = rebuild;
+        recomputedTiles = dirtyCount;
+        totalRecomputedTiles += dirtyCount;
+        totalTiles += numberOfTiles;
+
+        if (verify) {
+            verify(view, projection, minDepth, maxDepth, pointLights, spotLights);
+        }
+    }
+
+    public int getRecomputedTiles() {
+        return recomputedTiles;
+    }
+
+    public boolean wasFullRebuild() {
+        return lastFullRebuild;
+    }
+
+    // Fraction of tiles culled again over every frame so far
+    public double getRecomputedFraction() {
+        return totalTiles == 0 ? 0.0 : (double) totalRecomputedTiles / totalTiles;
+    }
+
+    private void updateLight(int light, Vector4f position, float radius, Vector4f direction, boolean rebuild) {
+        int state = light * LIGHT_STATE;
+        boolean moved = rebuild
+                || lightState[state] != position.x || lightState[state + 1] != position.y
+                || lightState[state + 2] != position.z || lightState[state + 3] != radius
+                || (direction != null && (lightState[state + 4] != direction.x || lightState[state + 5] != direction.y
+                || lightState[state + 6] != direction.z || lightState[state + 7] != direction.w));
+        if (!moved) {
+            return;
+        }
+
+        lightState[state] = position.x;
+        lightState[state + 1] = position.y;
+        lightState[state + 2] = position.z;
+        lightState[state + 3] = radius;
+        if (direction != null) {
+            lightState[state + 4] = direction.x;
+            lightState[state + 5] = direction.y;
+            lightState[state + 6] = direction.z;
+            lightState[state + 7] = direction.w;
+        }
+
+        // Tiles covered before the move
+        if (!rebuild) {
+            markFootprint(light);
+        }
+        footprint(position, radius, light * 4);
+        // Tiles covered after the move
+        markFootprint(light);
+    }
+
+    private void markFootprint(int light) {
+        int f = light * 4;
+        for (int y = footprints[f + 1]; y <= footprints[f + 3]; y++) {
+            for (int x = footprints[f]; x <= footprints[f + 2]; x++) {
+                lightDirty[y * culling.getTilesX() + x] = true;
+            }
+        }
+    }
+
+    // Conservative rectangle of tiles a light's bounding sphere can touch
+    private void footprint(Vector4f position, float radius, int offset) {
+        int tilesX = culling.getTilesX();
+        int tilesY = culling.getTilesY();
+        Vector3f center = view.transformPosition(position.x, position.y, position.z, new Vector3f());
+
+        // Entirely behind the camera, rejected by the near plane of every tile
+        if (center.z - radius > 0.0f) {
+            footprints[offset] = 0;
+            footprints[offset + 1] = 0;
+            footprints[offset + 2] = -1;
+            footprints[offset + 3] = -1;
+            return;
+        }
+
+        float minX = 0.0f;
+        float minY = 0.0f;
+        float maxX = tilesX - 1;
+        float maxY = tilesY - 1;
+        // Only project the bounding box when it is entirely in front of the eye, otherwise it can touch any tile
+        if (center.z + radius < 0.0f) {
+            minX = minY = Float.MAX_VALUE;
+            maxX = maxY = -Float.MAX_VALUE;
+            Vector4f corner = new Vector4f();
+            for (int i = 0; i < 8; i++) {
+                corner.set(center.x + ((i & 1) == 0 ? -radius : radius),
+                        center.y + ((i & 2) == 0 ? -radius : radius),
+                        center.z + ((i & 4) == 0 ? -radius : radius), 1.0f);
+                projection.transform(corner);
+                float x = (corner.x / corner.w * 0.5f + 0.5f) * tilesX;
+                float y = (corner.y / corner.w * 0.5f + 0.5f) * tilesY;
+                minX = Math.min(minX, x);
+                minY = Math.min(minY, y);
+                maxX = Math.max(maxX, x);
+                maxY = Math.max(maxY, y);
+            }
+        }
+
+        // Grown by a tile on each side to absorb floating point differences with the plane tests
+        footprints[offset] = clamp((int) Math.floor(minX) - 1, tilesX);
+        footprints[offset + 1] = clamp((int) Math.floor(minY) - 1, tilesY);
+        footprints[offset + 2] = clamp((int) Math.floor(maxX) + 1, tilesX);
+        footprints[offset + 3] = clamp((int) Math.floor(maxY) + 1, tilesY);
+        // Entirely off screen
+        if (maxX < -1.0f || maxY < -1.0f || minX > tilesX + 1.0f || minY > tilesY + 1.0f) {
+            footprints[offset + 2] = footprints[offset] - 1;
+        }
+    }
+
+    private static int clamp(int value, int count) {
+        return Math.max(0, Math.min(count - 1, value));
+    }
+
+    private void verify(Matrix4f view, Matrix4f projection, float[] minDepth, float[] maxDepth,
+                        List<Main.PointLight> pointLights, List<Main.SpotLight> spotLights) {
+        if (reference == null) {
+            reference = new LightCulling(culling.screenWidth, culling.screenHeight, culling.tileSize);
+        }
+        reference.setView(view, projection);
+        reference.cull(minDepth, maxDepth, pointLights, spotLights, false);
+        for (int tile = 0; tile < culling.getNumberOfTiles(); tile++) {
+            int count = reference.getVisibleCount(tile);
+            boolean same = count == culling.getVisibleCount(tile);
+            for (int i = 0; same && i < count; i++) {
+                same = reference.getVisibleIndex(tile, i) == culling.getVisibleIndex(tile, i);
+            }
+            if (!same) {
+                throw new IllegalStateException("Incremental culling differs from a full rebuild in tile " + tile);
+            }
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package boot;
+
+import org.joml.Matrix4f;
+import org.joml.Vector4f;
+
+import java.util.List;
+
+// CPU version of light_culling.comp.glsl. Builds the same per tile frustum planes as the compute shader
+// and fills the same per tile visible light index lists, so culling changes can be checked without a GPU.
+// Spot lights are indexed after the point lights, i.e. spot light i is stored as pointLightCount + i
+public class LightCulling {
+    public static final int MAX_LIGHTS_PER_TILE = 1024;
+
+    final int screenWidth;
+    final int screenHeight;
+    final int tileSize;
+    final int tilesX;
+    final int tilesY;
+
+    // Left, right, bottom and top planes of every tile in world space, 4 planes per tile
+    final Vector4f[] sidePlanes;
+    // Visible light indices, MAX_LIGHTS_PER_TILE slots per tile
+    final int[] visibleIndices;
+    final int[] visibleCounts;
+
+    private final Matrix4f view = new Matrix4f();
+    private final Matrix4f projection = new Matrix4f();
+    private final Matrix4f viewProjection = new Matrix4f();
+
+    public LightCulling(int screenWidth, int screenHeight, int tileSize) {
+        this.screenWidth = screenWidth;
+        this.screenHeight = screenHeight;
+        this.tileSize = tileSize;
+        tilesX = (screenWidth + tileSize - 1) / tileSize;
+        tilesY = (screenHeight + tileSize - 1) / tileSize;
+
+        int numberOfTiles = tilesX * tilesY;
+        sidePlanes = new Vector4f[numberOfTiles * 4];
+        for (int i = 0; i < sidePlanes.length; i++) {
+            sidePlanes[i] = new Vector4f();
+        }
+        visibleIndices = new int[numberOfTiles * MAX_LIGHTS_PER_TILE];
+        visibleCounts = new int[numberOfTiles];
+    }
+
+    public int getTilesX() {
+        return tilesX;
+    }
+
+    public int getTilesY() {
+        return tilesY;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int getNumberOfTiles() {
+        return tilesX * tilesY;
+    }
+
+    public int getVisibleCount(int tile) {
+        return visibleCounts[tile];
+    }
+
+    public int getVisibleIndex(int tile, int i) {
+        return visibleIndices[tile * MAX_LIGHTS_PER_TILE + i];
+    }
+
+    // Recomputes the side planes of every tile. Must be called whenever the view or projection changes
+    public void setView(Matrix4f view, Matrix4f projection) {
+        this.view.set(view);
+        this.projection.set(projection);
+        projection.mul(view, viewProjection);
+
+        for (int y = 0; y < tilesY; y++) {
+            for (int x = 0; x < tilesX; x++) {
+                // Steps based on tile scale, same as the compute shader
+                float negativeStepX = (2.0f * x) / tilesX;
+                float negativeStepY = (2.0f * y) / tilesY;
+                float positiveStepX = (2.0f * (x + 1)) / tilesX;
+                float positiveStepY = (2.0f * (y + 1)) / tilesY;
+
+                int base = (y * tilesX + x) * 4;
+                sidePlanes[base].set(1.0f, 0.0f, 0.0f, 1.0f - negativeStepX); // Left
+                sidePlanes[base + 1].set(-1.0f, 0.0f, 0.0f, -1.0f + positiveStepX); // Right
+                sidePlanes[base + 2].set(0.0f, 1.0f, 0.0f, 1.0f - negativeStepY); // Bottom
+                sidePlanes[base + 3].set(0.0f, -1.0f, 0.0f, -1.0f + positiveStepY); // Top
+
+                for (int i = 0; i < 4; i++) {
+                    transformPlane(sidePlanes[base + i], viewProjection);
+                }
+            }
+        }
+    }
+
+    public Matrix4f getView() {
+        return view;
+    }
+
+    public Matrix4f getProjection() {
+        return projection;
+    }
+
+    // Culls every tile. minDepth and maxDepth hold the linear depth bounds of each tile.
+    // When spotsAsSpheres is set, spot lights are only tested with their bounding sphere
+    public void cull(float[] minDepth, float[] maxDepth, List<Main.PointLight> pointLights,
+                     List<Main.SpotLight> spotLights, boolean spotsAsSpheres) {
+        Vector4f[] depthPlanes = newDepthPlanes();
+        for (int tile = 0; tile < getNumberOfTiles(); tile++) {
+            cullTile(tile, minDepth[tile], maxDepth[tile], pointLights, spotLights, spotsAsSpheres, depthPlanes);
+        }
+    }
+
+    // Culls a single tile. Passing the bounds of a depth slice instead of the tile's depth bounds culls a single cluster.
+    // depthPlanes is scratch space of two planes so tiles can be culled from several threads
+    public void cullTile(int tile, float minDepth, float maxDepth, List<Main.PointLight> pointLights,
+                         List<Main.SpotLight> spotLights, boolean spotsAsSpheres, Vector4f[] depthPlanes) {
+        // Near and far planes from the tile's depth bounds, transformed from view space to world space
+        depthPlanes[0].set(0.0f, 0.0f, -1.0f, -minDepth);
+        depthPlanes[1].set(0.0f, 0.0f, 1.0f, maxDepth);
+        transformPlane(depthPlanes[0], view);
+        transformPlane(depthPlanes[1], view);
+
+        int base = tile * 4;
+        int offset = tile * MAX_LIGHTS_PER_TILE;
+        int count = 0;
+
+        for (int i = 0; i < pointLights.size() && count < MAX_LIGHTS_PER_TILE; i++) {
+            Main.PointLight light = pointLights.get(i);
+            Vector4f position = light.position;
+            if (sphereVisible(position.x, position.y, position.z, light.paddingAndRadius.w, base, depthPlanes)) {
+                visibleIndices[offset + count++] = i;
+            }
+        }
+
+        for (int i = 0; i < spotLights.size() && count < MAX_LIGHTS_PER_TILE; i++) {
+            Main.SpotLight light = spotLights.get(i);
+            Vector4f position = light.positionAndRadius;
+            if (!sphereVisible(position.x, position.y, position.z, position.w, base, depthPlanes)) {
+                continue;
+            }
+            if (spotsAsSpheres || coneVisible(light, base, depthPlanes)) {
+                visibleIndices[offset + count++] = pointLights.size() + i;
+            }
+        }
+
+        visibleCounts[tile] = count;
+    }
+
+    public static Vector4f[] newDepthPlanes() {
+        return new Vector4f[]{new Vector4f(), new Vector4f()};
+    }
+
+    private boolean sphereVisible(float x, float y, float z, float radius, int base, Vector4f[] depthPlanes) {
+        for (int j = 0; j < 4; j++) {
+            if (distance(sidePlanes[base + j], x, y, z) + radius <= 0.0f) {
+                return false;
+            }
+        }
+        for (Vector4f plane : depthPlanes) {
+            if (distance(plane, x, y, z) + radius <= 0.0f) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean coneVisible(Main.SpotLight light, int base, Vector4f[] depthPlanes) {
+        for (int j = 0; j < 4; j++) {
+            if (coneBehindPlane(light, sidePlanes[base + j])) {
+                return false;
+            }
+        }
+        for (Vector4f plane : depthPlanes) {
+            if (coneBehindPlane(light, plane)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Returns true if the spot light's cone lies entirely on the negative side of the plane.
+    // The spherical cap of the light is contained in the flat cone of height radius, so testing that cone is conservative.
+    // Only the apex and the point of the base disc furthest along the plane normal need to be checked
+    public static boolean coneBehindPlane(Main.SpotLight light, Vector4f plane) {
+        Vector4f apex = light.positionAndRadius;
+        Vector4f direction = light.directionAndCosAngle;
+        float range = apex.w;
+        float cosAngle = direction.w;
+
+        if (distance(plane, apex.x, apex.y, apex.z) > 0.0f) {
+            return false;
+        }
+
+        // Component of the plane normal perpendicular to the cone axis
+        float nDotD = plane.x * direction.x + plane.y * direction.y + plane.z * direction.z;
+        float mx = plane.x - nDotD * direction.x;
+        float my = plane.y - nDotD * direction.y;
+        float mz = plane.z - nDotD * direction.z;
+        float length = (float) Math.sqrt(mx * mx + my * my + mz * mz);
+        if (length > 1e-6f) {
+            mx /= length;
+            my /= length;
+            mz /= length;
+        } else {
+            mx = my = mz = 0.0f;
+        }
+
+        float baseRadius = range * (float) Math.sqrt(Math.max(0.0f, 1.0f - cosAngle * cosAngle)) / cosAngle;
+        float qx = apex.x + direction.x * range + mx * baseRadius;
+        float qy = apex.y + direction.y * range + my * baseRadius;
+        float qz = apex.z + direction.z * range + mz * baseRadius;
+        return distance(plane, qx, qy, qz) <= 0.0f;
+    }
+
+    private static float distance(Vector4f plane, float x, float y, float z) {
+        return plane.x * x + plane.y * y + plane.z * z + plane.w;
+    }
+
+    // Same as "plane *= matrix" in GLSL followed by normalizing the plane
+    private static void transformPlane(Vector4f plane, Matrix4f matrix) {
+        matrix.transformTranspose(plane);
+        float length = (float) Math.sqrt(plane.x * plane.x + plane.y * plane.y + plane.z * plane.z);
+        plane.div(length);
+    }
+}
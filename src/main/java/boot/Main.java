@@ -1,11 +1,16 @@
 package boot;
 
+import org.joml.Matrix4f;
 import org.joml.Random;
 import org.joml.Vector2f;
 import org.joml.Vector3f;
 import org.joml.Vector4f;
 import org.lwjgl.opengl.GL;
 
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.lwjgl.glfw.GLFW.*;
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL13.GL_MULTISAMPLE;
@@ -17,8 +22,13 @@ public class Main {
     public static final Vector2f SCREEN_SIZE = new Vector2f(1920, 1080);
     public static final int NUM_LIGHTS = 1024;
     public static final float LIGHT_RADIUS = 30.0f;
+    public static final int NUM_SPOT_LIGHTS = 64;
+    public static final float SPOT_LIGHT_RADIUS = 60.0f;
+    public static final float SPOT_LIGHT_ANGLE = 30.0f;
     public static final float NEAR_PLANE = 0.1f;
     public static final float FAR_PLANE = 300.0f;
+    public static final int SAMPLES = 4;
+    public static final boolean INCREMENTAL_CULLING = true;
 
     // Defines exposure level for HDR lighting
     public static final float exposure = 1.0f;
@@ -40,7 +50,10 @@ public class Main {
 
     // Used for storage buffer objects to hold light data and visible light indices data
     int lightBuffer = 0;
+    int spotLightBuffer = 0;
     int visibleLightIndicesBuffer = 0;
+    int tileLightDirtyBuffer = 0;
+    int tileDepthBoundsBuffer = 0;
 
     // structures defining the data of both buffers
     public static class PointLight {
@@ -49,6 +62,13 @@ public class Main {
         Vector4f paddingAndRadius;
     }
 
+    // Direction must be normalized and the cone angle must be below 90 degrees
+    public static class SpotLight {
+        Vector4f color;
+        Vector4f positionAndRadius;
+        Vector4f directionAndCosAngle;
+    }
+
     public static class VisibleIndex {
         int index;
     }
@@ -57,6 +77,12 @@ public class Main {
     int workGroupsX = 0;
     int workGroupsY = 0;
 
+    // The frame's passes and the executor owning their transient textures and buffers. Rebuilt on resize,
+    // the executor keeps the objects that still fit
+    ForwardPlusGraph frameGraph;
+    RenderGraphExecutor frameExecutor = new RenderGraphExecutor();
+    ForwardPlusGraph.View frameView = ForwardPlusGraph.View.SCENE;
+
     // Camera object
     Camera camera = new Camera(new Vector3f(-40.0f, 10.0f, 0.0f), new Vector3f(0.0f, 1.0f, 0.0f));
 
@@ -89,27 +115,29 @@ public class Main {
         // Set mouse and keyboard callback functions
         glfwSetKeyCallback(gWindowPtr, this::KeyCallback);
         glfwSetCursorPosCallback(gWindowPtr, this::MouseCallback);
+        glfwSetFramebufferSizeCallback(gWindowPtr, this::FramebufferSizeCallback);
         glfwSetInputMode(gWindowPtr, GLFW_CURSOR, GLFW_CURSOR_DISABLED);
     }
 
     // Initializes buffers and scene data
     void InitScene() {
-        // Define work group sizes in x and y direction based off screen size and tile size (in pixels)
-        workGroupsX = (int) ((SCREEN_SIZE.x + (SCREEN_SIZE.x % 16)) / 16);
-        workGroupsY = (int) ((SCREEN_SIZE.y + (SCREEN_SIZE.y % 16)) / 16);
-        int numberOfTiles = workGroupsX * workGroupsY;
-
         // Generate our shader storage buffers
-        int lightBuffer = glGenBuffers();
-        int visibleLightIndicesBuffer = glGenBuffers();
+        lightBuffer = glGenBuffers();
+        visibleLightIndicesBuffer = glGenBuffers();
+        tileLightDirtyBuffer = glGenBuffers();
+        tileDepthBoundsBuffer = glGenBuffers();
 
         // Bind light buffer
         glBindBuffer(GL_SHADER_STORAGE_BUFFER, lightBuffer);
         glBufferData(GL_SHADER_STORAGE_BUFFER, NUM_LIGHTS * 12L * Float.BYTES, GL_DYNAMIC_DRAW);
 
-        // Bind visible light indices buffer
-        glBindBuffer(GL_SHADER_STORAGE_BUFFER, visibleLightIndicesBuffer);
-        glBufferData(GL_SHADER_STORAGE_BUFFER, numberOfTiles * Integer.BYTES * 1024L, GL_STATIC_DRAW);
+        // Bind spot light buffer. Spot lights are packed into the same 12 floats as point lights
+        spotLightBuffer = glGenBuffers();
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, spotLightBuffer);
+        glBufferData(GL_SHADER_STORAGE_BUFFER, NUM_SPOT_LIGHTS * 12L * Float.BYTES, GL_DYNAMIC_DRAW);
+
+        // Size the per tile buffers and build the frame graph for the window
+        Resize((int) SCREEN_SIZE.x, (int) SCREEN_SIZE.y);
 
         // Set the default values for the light buffer
         SetupLights();
@@ -117,6 +145,75 @@ public class Main {
         glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
     }
 
+    // Reallocates the per tile buffers for the new size and rebuilds the frame graph. Their contents are lost,
+    // which the new graph handles by rebuilding every tile on its first light cull
+    void Resize(int width, int height) {
+        // Define work group sizes in x and y direction based off screen size and tile size (in pixels)
+        workGroupsX = (width + 15) / 16;
+        workGroupsY = (height + 15) / 16;
+        int numberOfTiles = workGroupsX * workGroupsY;
+
+        // Bind visible light indices buffer
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, visibleLightIndicesBuffer);
+        glBufferData(GL_SHADER_STORAGE_BUFFER, numberOfTiles * (long) Integer.BYTES * LightCulling.MAX_LIGHTS_PER_TILE,
+                GL_STATIC_DRAW);
+
+        // Bind the buffers used by incremental culling. The dirty flags are written by the CPU every frame,
+        // the depth bounds only by the compute shader, so neither has to be read back
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, tileLightDirtyBuffer);
+        glBufferData(GL_SHADER_STORAGE_BUFFER, numberOfTiles * (long) Integer.BYTES, GL_STREAM_DRAW);
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, tileDepthBoundsBuffer);
+        glBufferData(GL_SHADER_STORAGE_BUFFER, numberOfTiles * 2L * Float.BYTES, GL_DYNAMIC_COPY);
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+
+        BuildFrameGraph(width, height);
+    }
+
+    // Declares the frame's passes for the current view and creates the GL objects they use
+    void BuildFrameGraph(int width, int height) {
+        ForwardPlusGraph.Buffers buffers = new ForwardPlusGraph.Buffers();
+        buffers.lightBuffer = lightBuffer;
+        buffers.spotLightBuffer = spotLightBuffer;
+        buffers.visibleLightIndicesBuffer = visibleLightIndicesBuffer;
+        buffers.tileLightDirtyBuffer = tileLightDirtyBuffer;
+        buffers.tileDepthBoundsBuffer = tileDepthBoundsBuffer;
+        frameGraph = new ForwardPlusGraph(width, height, SAMPLES, frameView, INCREMENTAL_CULLING, buffers,
+                new ForwardPlusGraph.Passes() {
+                    @Override
+                    public void tonemap(RenderGraphExecutor executor) {
+                        DrawQuad();
+                    }
+
+                    @Override
+                    public void depthDebug(RenderGraphExecutor executor) {
+                        DrawQuad();
+                    }
+
+                    @Override
+                    public void lightDebug(RenderGraphExecutor executor) {
+                        DrawQuad();
+                    }
+                });
+        frameExecutor.realize(frameGraph.getGraph());
+    }
+
+    // Runs the frame's passes with the barriers between them. Called each frame
+    void RenderFrame() {
+        frameExecutor.execute();
+    }
+
+    // Uploads the tiles moved lights dirtied this frame. The whole buffer is overwritten, which also clears
+    // last frame's flags. Returns true when the compute shader has to rebuild every tile instead
+    boolean UploadTileLightDirty(IncrementalLightCulling culling, IntBuffer flags, Matrix4f view, Matrix4f projection,
+                                 List<PointLight> pointLights, List<SpotLight> spotLights) {
+        boolean rebuild = culling.updateLights(view, projection, pointLights, spotLights);
+        culling.putLightDirty(flags);
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, tileLightDirtyBuffer);
+        glBufferSubData(GL_SHADER_STORAGE_BUFFER, 0, flags);
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+        return rebuild;
+    }
+
     // Returns a random position in the scene confined to the lightMinBounds and lightMaxBounds
     Vector3f RandomPosition() {
         Random rand = new Random();
@@ -129,10 +226,62 @@ public class Main {
         return position;
     }
 
+    // Creates lights in random positions and colors confined to the light bounds.
+    // Seeded so CPU reference renders and benchmarks are reproducible
+    static List<PointLight> RandomLights(int count, float radius, long seed) {
+        Random rand = new Random(seed);
+        List<PointLight> lights = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            PointLight light = new PointLight();
+            Vector4f position = new Vector4f(0.0f, 0.0f, 0.0f, 1.0f);
+            for (int j = 0; j < 3; j++) {
+                float min = LIGHT_MIN_BOUNDS.get(j);
+                float max = LIGHT_MAX_BOUNDS.get(j);
+                position.setComponent(j, rand.nextFloat() * (max - min) + min);
+            }
+            light.color = new Vector4f(rand.nextFloat(), rand.nextFloat(), rand.nextFloat(), 1.0f);
+            light.position = position;
+            light.paddingAndRadius = new Vector4f(0.0f, 0.0f, 0.0f, radius);
+            lights.add(light);
+        }
+        return lights;
+    }
+
+    // Creates spot lights in random positions and colors confined to the light bounds, mostly facing down.
+    // Seeded like RandomLights
+    static List<SpotLight> RandomSpotLights(int count, float radius, float angleDegrees, long seed) {
+        Random rand = new Random(seed);
+        List<SpotLight> lights = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            SpotLight light = new SpotLight();
+            Vector3f position = new Vector3f();
+            for (int j = 0; j < 3; j++) {
+                float min = LIGHT_MIN_BOUNDS.get(j);
+                float max = LIGHT_MAX_BOUNDS.get(j);
+                position.setComponent(j, rand.nextFloat() * (max - min) + min);
+            }
+            Vector3f direction = new Vector3f(rand.nextFloat() - 0.5f, -2.0f, rand.nextFloat() - 0.5f).normalize();
+            light.color = new Vector4f(rand.nextFloat(), rand.nextFloat(), rand.nextFloat(), 1.0f);
+            light.positionAndRadius = new Vector4f(position, radius);
+            light.directionAndCosAngle = new Vector4f(direction, (float) Math.cos(Math.toRadians(angleDegrees)));
+            lights.add(light);
+        }
+        return lights;
+    }
+
     // Fills the lightBuffer with lights in random positions and colors
     void SetupLights() {
     }
 
+    // Moves the lights down by LIGHT_DELTA_TIME, wrapping around to the top of the light bounds
+    static void UpdateLights(List<PointLight> lights) {
+        float height = LIGHT_MAX_BOUNDS.y - LIGHT_MIN_BOUNDS.y;
+        for (PointLight light : lights) {
+            float y = light.position.y + LIGHT_DELTA_TIME - LIGHT_MIN_BOUNDS.y;
+            light.position.y = ((y % height) + height) % height + LIGHT_MIN_BOUNDS.y;
+        }
+    }
+
     // Updates light position based on lightDeltaTime. Called each frame
     void UpdateLights() {
     }
@@ -147,6 +296,14 @@ public class Main {
     void MouseCallback(long window, double x, double y) {
     }
 
+    void FramebufferSizeCallback(long window, int width, int height) {
+        // Minimized windows report a size of 0, keep the current graph until the window is restored
+        if (width > 0 && height > 0) {
+            glViewport(0, 0, width, height);
+            Resize(width, height);
+        }
+    }
+
     // Based on function from LearnOpenGL: http://www.learnopengl.com
 // Draw a 1 x 1 quad in NDC. We use it to render framebuffer color targets and post-processing effects
     void DrawQuad() {
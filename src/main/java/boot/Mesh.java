@@ -3,17 +3,16 @@ package boot;
 import org.joml.Vector2f;
 import org.joml.Vector3f;
 import org.lwjgl.assimp.AIString;
-import org.lwjgl.system.MemoryUtil;
 
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 
 import static org.lwjgl.opengl.GL15.*;
 import static org.lwjgl.opengl.GL20.*;
 import static org.lwjgl.opengl.GL30.glBindVertexArray;
+import static org.lwjgl.opengl.GL30.glDeleteVertexArrays;
 import static org.lwjgl.opengl.GL30.glGenVertexArrays;
 
 public class Mesh {
@@ -47,11 +46,12 @@ public class Mesh {
     int VBO;
     int EBO;
 
-    public Mesh(List<Vertex> vertices, List<Integer> indices, List<Texture> textures) {
+    // Upload data is staged in the arena. glBufferData copies it, so the arena can be reset once the mesh is created
+    public Mesh(List<Vertex> vertices, List<Integer> indices, List<Texture> textures, NativeArena arena) {
         this.vertices = vertices;
         this.indices = indices;
         this.textures = textures;
-        setupMesh();
+        setupMesh(arena);
     }
 
     public void draw(Shader shader) {
@@ -97,7 +97,14 @@ public class Mesh {
         }
     }
 
-    private void setupMesh() {
+    // Releases the GL objects of the mesh
+    public void delete() {
+        glDeleteVertexArrays(VAO);
+        glDeleteBuffers(VBO);
+        glDeleteBuffers(EBO);
+    }
+
+    private void setupMesh(NativeArena arena) {
         // Create buffers and arrays
         VAO = glGenVertexArrays();
         VBO = glGenBuffers();
@@ -105,16 +112,20 @@ public class Mesh {
 
         glBindVertexArray(VAO);
 
-        float[] position = fromVertex(vertices);
-        FloatBuffer posBuffer = MemoryUtil.memAllocFloat(position.length);
-        posBuffer.put(position).flip();
+        FloatBuffer posBuffer = arena.allocFloat(vertices.size() * 3);
+        for (Vertex vertex : vertices) {
+            posBuffer.put(vertex.position.x).put(vertex.position.y).put(vertex.position.z);
+        }
+        posBuffer.flip();
         // Load data into vertex buffers
         glBindBuffer(GL_ARRAY_BUFFER, VBO);
         glBufferData(GL_ARRAY_BUFFER, posBuffer, GL_STATIC_DRAW);
 
-        int[] indice = listIntToArray(indices);
-        IntBuffer indBuffer = MemoryUtil.memAllocInt(indice.length);
-        indBuffer.put(indBuffer).flip();
+        IntBuffer indBuffer = arena.allocInt(indices.size());
+        for (int index : indices) {
+            indBuffer.put(index);
+        }
+        indBuffer.flip();
 
         glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, EBO);
         glBufferData(GL_ELEMENT_ARRAY_BUFFER, indBuffer, GL_STATIC_DRAW);
@@ -143,27 +154,4 @@ public class Mesh {
         glBindVertexArray(0);
     }
 
-    private float[] fromVertex(List<Vertex> vertices) {
-        List<Float> ver = new ArrayList<>(vertices.size() * 3);
-        for (Vertex vertex : vertices) {
-            ver.add(vertex.position.x);
-            ver.add(vertex.position.y);
-            ver.add(vertex.position.z);
-        }
-        return listToArray(ver);
-    }
-
-    private float[] listToArray(List<Float> list) {
-        int size = list != null ? list.size() : 0;
-        float[] floatArr = new float[size];
-        for (int i = 0; i < size; i++) {
-            floatArr[i] = list.get(i);
-        }
-        return floatArr;
-    }
-
-    private int[] listIntToArray(List<Integer> list) {
-        return list.stream().mapToInt((Integer v) -> v).toArray();
-    }
-
 }
@@ -2,7 +2,6 @@ package boot;
 
 import org.joml.Vector2f;
 import org.joml.Vector3f;
-import org.lwjgl.BufferUtils;
 import org.lwjgl.PointerBuffer;
 import org.lwjgl.assimp.*;
 
@@ -10,8 +9,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
-import java.nio.channels.Channels;
-import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -19,19 +16,20 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 
-import static org.lwjgl.BufferUtils.createByteBuffer;
 import static org.lwjgl.assimp.Assimp.*;
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL30.glGenerateMipmap;
 import static org.lwjgl.stb.STBImage.*;
 
 public class Model {
-    List<Mesh.Texture> texturesLoaded;
-    List<Mesh> meshes;
+    List<Mesh.Texture> texturesLoaded = new ArrayList<>();
+    List<Mesh> meshes = new ArrayList<>();
     String directory;
     boolean gammaCorrection;
+    // Staging memory for uploads while the model is loading, reset after every mesh and texture
+    private NativeArena arena;
 
-    private static final int FLAGS = aiProcess_Triangulate | aiProcess_FlipUVs
+    static final int FLAGS = aiProcess_Triangulate | aiProcess_FlipUVs
             | aiProcess_CalcTangentSpace;
 
     // Takes a file path to a 3D model
@@ -41,11 +39,33 @@ public class Model {
     }
 
     private void loadModel(String path) {
-        try (AIScene aiScene = aiImportFile(path, FLAGS)) {
-            directory = path.substring(0, path.lastIndexOf('\\'));
-            assert aiScene != null;
-            processNode(aiScene.mRootNode(), aiScene);
+        try (NativeArena arena = new NativeArena()) {
+            this.arena = arena;
+            // The scene is owned by assimp, so it is released with aiReleaseImport instead of being freed
+            AIScene aiScene = aiImportFile(path, FLAGS);
+            if (aiScene == null)
+                throw new RuntimeException("Failed to load model: " + path + " " + aiGetErrorString());
+            try {
+                directory = path.substring(0, path.lastIndexOf('\\'));
+                processNode(aiScene.mRootNode(), aiScene);
+            } finally {
+                aiReleaseImport(aiScene);
+            }
+        } finally {
+            arena = null;
+        }
+    }
+
+    // Releases the GL objects of every mesh and texture so the model can be reloaded without leaking
+    void delete() {
+        for (Mesh mesh : meshes) {
+            mesh.delete();
+        }
+        for (Mesh.Texture texture : texturesLoaded) {
+            glDeleteTextures(texture.id);
         }
+        meshes.clear();
+        texturesLoaded.clear();
     }
 
     // Draws model
@@ -56,12 +76,15 @@ public class Model {
     }
 
     void processNode(AINode node, AIScene scene) {
-        int numMeshes = scene.mNumMeshes();
+        // Process the meshes referenced by this node
+        int numMeshes = node.mNumMeshes();
+        IntBuffer nodeMeshes = node.mMeshes();
         PointerBuffer aiMeshes = scene.mMeshes();
         for (int i = 0; i < numMeshes; i++) {
-            assert aiMeshes != null;
-            AIMesh aiMesh = AIMesh.create(aiMeshes.get(i));
+            assert aiMeshes != null && nodeMeshes != null;
+            AIMesh aiMesh = AIMesh.create(aiMeshes.get(nodeMeshes.get(i)));
             meshes.add(processMesh(aiMesh, scene));
+            arena.reset();
         }
         // After we've processed all the meshes (if any) we then recursively process each of the children nodes
         int numChildren = node.mNumChildren();
@@ -177,7 +200,7 @@ public class Model {
             textures.addAll(heightMaps);
         }
 
-        return new Mesh(vertices, indices, textures);
+        return new Mesh(vertices, indices, textures, arena);
     }
 
 
@@ -187,9 +210,11 @@ public class Model {
 
 
         for (int i = 0; i < Assimp.aiGetMaterialTextureCount(mat, type); i++) {
-            AIString path = AIString.calloc();
-            Assimp.aiGetMaterialTexture(mat, type, i, path, (IntBuffer) null, null, null, null, null, null);
-            String textPath = path.dataString();
+            String textPath;
+            try (AIString path = AIString.calloc()) {
+                Assimp.aiGetMaterialTexture(mat, type, i, path, (IntBuffer) null, null, null, null, null, null);
+                textPath = path.dataString();
+            }
 
             // Ignore textures that we have already loaded
             boolean skip = false;
@@ -222,9 +247,9 @@ public class Model {
             throw new RuntimeException(e);
         }
 
-        IntBuffer w = BufferUtils.createIntBuffer(1);
-        IntBuffer h = BufferUtils.createIntBuffer(1);
-        IntBuffer comp = BufferUtils.createIntBuffer(1);
+        IntBuffer w = arena.allocInt(1);
+        IntBuffer h = arena.allocInt(1);
+        IntBuffer comp = arena.allocInt(1);
 
         // Use info to read image metadata without decoding the entire image.
         // We don't need this for this demo, just testing the API.
@@ -237,6 +262,10 @@ public class Model {
         if (image == null)
             throw new RuntimeException("Failed to load image: " + stbi_failure_reason());
 
+        // stb allocates the decoded image itself, so it is accounted separately until it is freed after the upload
+        long imageSize = (long) w.get(0) * h.get(0) * comp.get(0);
+        String imageSite = NativeMemory.callSite();
+        NativeMemory.allocated(imageSize, imageSite);
 
         int textureID = glGenTextures();
 
@@ -261,47 +290,36 @@ public class Model {
         glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
         glBindTexture(GL_TEXTURE_2D, 0);
 
+        stbi_image_free(image);
+        NativeMemory.freed(imageSize, imageSite);
+        arena.reset();
+
         return textureID;
 
     }
 
 
+    // Reads a file or class path resource into the model's arena
     protected ByteBuffer ioResourceToByteBuffer(String resource) throws IOException {
         ByteBuffer buffer;
-        int bufferSize = 10 * 1024;
         Path path = Paths.get(resource);
         if (Files.isReadable(path)) {
             try (SeekableByteChannel fc = Files.newByteChannel(path)) {
-                buffer = createByteBuffer((int) fc.size() + 1);
-                while (fc.read(buffer) != -1) ;
+                buffer = arena.alloc((int) fc.size());
+                while (buffer.hasRemaining() && fc.read(buffer) != -1) ;
             }
         } else {
             try (InputStream source = Model.class.getClassLoader().getResourceAsStream(resource)) {
-                assert source != null;
-                try (ReadableByteChannel rbc = Channels.newChannel(source)) {
-                    buffer = createByteBuffer(bufferSize);
-
-                    while (true) {
-                        int bytes = rbc.read(buffer);
-                        if (bytes == -1) {
-                            break;
-                        }
-                        if (buffer.remaining() == 0) {
-                            buffer = resizeBuffer(buffer, buffer.capacity() * 2);
-                        }
-                    }
-                }
+                if (source == null)
+                    throw new IOException("Resource not found: " + resource);
+                // Read the resource once instead of growing a native buffer by doubling and copying
+                byte[] bytes = source.readAllBytes();
+                buffer = arena.alloc(bytes.length);
+                buffer.put(bytes);
             }
         }
 
         buffer.flip();
         return buffer;
     }
-
-    private ByteBuffer resizeBuffer(ByteBuffer buffer, int newCapacity) {
-        ByteBuffer newBuffer = createByteBuffer(newCapacity);
-        buffer.flip();
-        newBuffer.put(buffer);
-        return newBuffer;
-    }
 }
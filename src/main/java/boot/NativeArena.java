@@ -0,0 +1,143 @@
+package boot;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.lwjgl.system.MemoryUtil.*;
+
+// Scoped bump allocator for native memory on the load path. Allocations are never freed one by one:
+// reset() releases everything allocated since the arena was created or last reset, close() releases the arena.
+// Chunks are accounted in NativeMemory under the call site that created the arena, and the bytes handed out
+// are tracked per call site of alloc so the leak report can name the code that used the arena
+public class NativeArena implements AutoCloseable {
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    private static final int ALIGNMENT = 16;
+
+    private final int chunkSize;
+    private final String site;
+    private final List<Long> chunks = new ArrayList<>();
+    private final List<Long> chunkSizes = new ArrayList<>();
+    // Bytes allocated since the last reset by call site of alloc, read by the leak report from other threads
+    private final Map<String, Long> allocationSites = new TreeMap<>();
+    private int currentChunk;
+    private long offset;
+    private long usedBytes;
+    private long peakUsedBytes;
+    private boolean closed;
+
+    public NativeArena() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    public NativeArena(int chunkSize) {
+        this.chunkSize = chunkSize;
+        site = NativeMemory.callSite();
+        NativeMemory.arenaOpened(this);
+    }
+
+    public ByteBuffer alloc(int size) {
+        if (closed) {
+            throw new IllegalStateException("Arena is closed");
+        }
+
+        long aligned = (size + ALIGNMENT - 1) & -ALIGNMENT;
+        // Move on to the next chunk that can hold the allocation, keeping chunks retained by reset()
+        while (currentChunk < chunks.size() && offset + aligned > chunkSizes.get(currentChunk)) {
+            currentChunk++;
+            offset = 0;
+        }
+        if (currentChunk == chunks.size()) {
+            long newChunkSize = Math.max(chunkSize, aligned);
+            long address = nmemAlloc(newChunkSize);
+            if (address == NULL) {
+                throw new OutOfMemoryError("Failed to allocate " + newChunkSize + " bytes of native memory");
+            }
+            chunks.add(address);
+            chunkSizes.add(newChunkSize);
+            NativeMemory.allocated(newChunkSize, site);
+            offset = 0;
+        }
+
+        long address = chunks.get(currentChunk) + offset;
+        offset += aligned;
+        usedBytes += aligned;
+        peakUsedBytes = Math.max(peakUsedBytes, usedBytes);
+        String allocationSite = NativeMemory.callSite();
+        synchronized (allocationSites) {
+            allocationSites.merge(allocationSite, aligned, Long::sum);
+        }
+        return memByteBuffer(address, size);
+    }
+
+    public FloatBuffer allocFloat(int count) {
+        return alloc(count * Float.BYTES).asFloatBuffer();
+    }
+
+    public IntBuffer allocInt(int count) {
+        return alloc(count * Integer.BYTES).asIntBuffer();
+    }
+
+    // Releases every allocation. The first chunk is kept for the next batch
+    public void reset() {
+        for (int i = chunks.size() - 1; i > 0; i--) {
+            nmemFree(chunks.get(i));
+            NativeMemory.freed(chunkSizes.get(i), site);
+            chunks.remove(i);
+            chunkSizes.remove(i);
+        }
+        currentChunk = 0;
+        offset = 0;
+        usedBytes = 0;
+        synchronized (allocationSites) {
+            allocationSites.clear();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        reset();
+        if (!chunks.isEmpty()) {
+            nmemFree(chunks.get(0));
+            NativeMemory.freed(chunkSizes.get(0), site);
+            chunks.clear();
+            chunkSizes.clear();
+        }
+        closed = true;
+        NativeMemory.arenaClosed(this);
+    }
+
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public long getPeakUsedBytes() {
+        return peakUsedBytes;
+    }
+
+    public long getReservedBytes() {
+        long total = 0;
+        for (long size : chunkSizes) {
+            total += size;
+        }
+        return total;
+    }
+
+    public String getSite() {
+        return site;
+    }
+
+    // Bytes allocated since the last reset grouped by the call site of alloc
+    public Map<String, Long> getAllocationSites() {
+        synchronized (allocationSites) {
+            return new TreeMap<>(allocationSites);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package boot;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+// Live and peak accounting of the native memory allocated by the load path, grouped by call site.
+// Arena chunks are accounted under the call site that created the arena, the report lists what each open arena
+// handed out by the call site of alloc below it.
+// Registered over JMX on first use. Run with -Dboot.leakReport=true to print the leak report on exit
+public class NativeMemory implements NativeMemoryMXBean {
+    static final NativeMemory INSTANCE = new NativeMemory();
+
+    private long liveBytes;
+    private long peakBytes;
+    private long allocationCount;
+    private long freeCount;
+    // Live bytes and allocation count per call site
+    private final Map<String, long[]> sites = new TreeMap<>();
+    private final Set<NativeArena> openArenas = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName("boot:type=NativeMemory"));
+        } catch (JMException e) {
+            System.err.println("Could not register native memory MBean: " + e.getMessage());
+        }
+        if (Boolean.getBoolean("boot.leakReport")) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                for (String line : INSTANCE.getLeakReport()) {
+                    System.err.println(line);
+                }
+            }));
+        }
+    }
+
+    public static void allocated(long bytes, String site) {
+        INSTANCE.onAllocated(bytes, site);
+    }
+
+    public static void freed(long bytes, String site) {
+        INSTANCE.onFreed(bytes, site);
+    }
+
+    static void arenaOpened(NativeArena arena) {
+        synchronized (INSTANCE) {
+            INSTANCE.openArenas.add(arena);
+        }
+    }
+
+    static void arenaClosed(NativeArena arena) {
+        synchronized (INSTANCE) {
+            INSTANCE.openArenas.remove(arena);
+        }
+    }
+
+    // First stack frame outside the accounting classes, as Class.method:line
+    public static String callSite() {
+        return StackWalker.getInstance().walk(frames -> frames
+                .filter(frame -> !frame.getClassName().equals(NativeMemory.class.getName())
+                        && !frame.getClassName().equals(NativeArena.class.getName()))
+                .findFirst()
+                .map(frame -> frame.getClassName() + "." + frame.getMethodName() + ":" + frame.getLineNumber())
+                .orElse("unknown"));
+    }
+
+    private synchronized void onAllocated(long bytes, String site) {
+        liveBytes += bytes;
+        peakBytes = Math.max(peakBytes, liveBytes);
+        allocationCount++;
+        long[] usage = sites.computeIfAbsent(site, s -> new long[2]);
+        usage[0] += bytes;
+        usage[1]++;
+    }
+
+    private synchronized void onFreed(long bytes, String site) {
+        liveBytes -= bytes;
+        freeCount++;
+        long[] usage = sites.get(site);
+        if (usage != null) {
+            usage[0] -= bytes;
+            usage[1]--;
+            if (usage[1] == 0) {
+                sites.remove(site);
+            }
+        }
+    }
+
+    @Override
+    public synchronized long getLiveBytes() {
+        return liveBytes;
+    }
+
+    @Override
+    public synchronized long getPeakBytes() {
+        return peakBytes;
+    }
+
+    @Override
+    public synchronized long getAllocationCount() {
+        return allocationCount;
+    }
+
+    @Override
+    public synchronized long getFreeCount() {
+        return freeCount;
+    }
+
+    @Override
+    public synchronized int getOpenArenaCount() {
+        return openArenas.size();
+    }
+
+    @Override
+    public synchronized String[] getLeakReport() {
+        List<String> report = new ArrayList<>();
+        report.add("Native memory: " + liveBytes + " bytes live, " + peakBytes + " bytes peak");
+        for (Map.Entry<String, long[]> site : sites.entrySet()) {
+            report.add("  " + site.getValue()[0] + " bytes in " + site.getValue()[1] + " allocations from " + site.getKey());
+        }
+        for (NativeArena arena : openArenas) {
+            report.add("  arena not closed, created at " + arena.getSite());
+            for (Map.Entry<String, Long> site : arena.getAllocationSites().entrySet()) {
+                report.add("    " + site.getValue() + " bytes allocated from " + site.getKey());
+            }
+        }
+        return report.toArray(new String[0]);
+    }
+
+    @Override
+    public synchronized void resetPeak() {
+        peakBytes = liveBytes;
+    }
+}
@@ -0,0 +1,20 @@
+package boot;
+
+// Native memory accounting published over JMX as boot:type=NativeMemory
+public interface NativeMemoryMXBean {
+    long getLiveBytes();
+
+    long getPeakBytes();
+
+    long getAllocationCount();
+
+    long getFreeCount();
+
+    int getOpenArenaCount();
+
+    // Live native memory grouped by the call site that allocated it. Arena chunks are listed under the arena's
+    // creator, followed by the open arenas with their allocations by the call site of alloc
+    String[] getLeakReport();
+
+    void resetPeak();
+}
@@ -0,0 +1,557 @@
+package boot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.lwjgl.opengl.GL11.GL_RGBA8;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL42.*;
+import static org.lwjgl.opengl.GL43.GL_SHADER_STORAGE_BARRIER_BIT;
+
+// Passes of a frame declared with the textures and buffers they read and write. compile works out the order
+// the passes run in and everything the GL calls need, without touching GL so it can run headless:
+// - passes whose results are never used by an output are culled, along with the resources only they use
+// - every transient resource gets a lifetime from the first to the last pass using it
+// - transients whose lifetimes do not overlap share a slot, one physical texture or buffer. Textures share a slot
+//   when their size and sample count match and their formats are view compatible, buffers when the slot's buffer
+//   is large enough or can grow
+// - the glMemoryBarrier bits each pass needs are derived from incoherent shader writes to the slots it accesses,
+//   including writes from the previous frame and from earlier users of a shared slot
+// RenderGraphExecutor creates the GL objects and runs the compiled passes.
+// Imported resources, such as the default framebuffer or buffers kept between frames, are never shared or culled
+public class RenderGraph {
+
+    // How a pass accesses a resource. Writes through shader images and storage buffers are not coherent with
+    // later accesses, which need barrierBit issued with glMemoryBarrier in between
+    public enum Usage {
+        SAMPLED(false, false, GL_TEXTURE_FETCH_BARRIER_BIT),
+        IMAGE_READ(false, false, GL_SHADER_IMAGE_ACCESS_BARRIER_BIT),
+        IMAGE_WRITE(true, true, GL_SHADER_IMAGE_ACCESS_BARRIER_BIT),
+        STORAGE_READ(false, false, GL_SHADER_STORAGE_BARRIER_BIT),
+        STORAGE_WRITE(true, true, GL_SHADER_STORAGE_BARRIER_BIT),
+        COLOR_ATTACHMENT(true, false, GL_FRAMEBUFFER_BARRIER_BIT),
+        DEPTH_ATTACHMENT(true, false, GL_FRAMEBUFFER_BARRIER_BIT),
+        BLIT_SOURCE(false, false, GL_FRAMEBUFFER_BARRIER_BIT),
+        BLIT_DESTINATION(true, false, GL_FRAMEBUFFER_BARRIER_BIT);
+
+        final boolean write;
+        final boolean incoherent;
+        final int barrierBit;
+
+        Usage(boolean write, boolean incoherent, int barrierBit) {
+            this.write = write;
+            this.incoherent = incoherent;
+            this.barrierBit = barrierBit;
+        }
+    }
+
+    // Runs a pass. The executor gives the GL objects of the pass's resources
+    public interface PassBody {
+        void execute(RenderGraphExecutor executor);
+    }
+
+    public static class Resource {
+        final String name;
+        final boolean buffer;
+        final boolean imported;
+        // GL object of an imported resource
+        final int object;
+        final int width;
+        final int height;
+        final int format;
+        final int samples;
+        final long size;
+        boolean output;
+
+        // Set by compile
+        int firstPass;
+        int lastPass;
+        Slot slot;
+
+        Resource(String name, boolean buffer, boolean imported, int object, int width, int height, int format,
+                 int samples, long size) {
+            this.name = name;
+            this.buffer = buffer;
+            this.imported = imported;
+            this.object = object;
+            this.width = width;
+            this.height = height;
+            this.format = format;
+            this.samples = samples;
+            this.size = size;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isBuffer() {
+            return buffer;
+        }
+
+        public boolean isImported() {
+            return imported;
+        }
+
+        // Memory of the resource in bytes
+        public long getBytes() {
+            return buffer ? size : (long) width * height * samples * getTexelBytes(format);
+        }
+
+        public Slot getSlot() {
+            return slot;
+        }
+
+        // Index of the first and last compiled pass using the resource, -1 when no pass uses it
+        public int getFirstPass() {
+            return firstPass;
+        }
+
+        public int getLastPass() {
+            return lastPass;
+        }
+    }
+
+    static class Access {
+        final Resource resource;
+        final Usage usage;
+
+        Access(Resource resource, Usage usage) {
+            this.resource = resource;
+            this.usage = usage;
+        }
+    }
+
+    public static class Pass {
+        final String name;
+        final PassBody body;
+        final List<Access> accesses = new ArrayList<>();
+        boolean sideEffect;
+
+        // Set by compile
+        boolean culled;
+        int barrierBits;
+
+        Pass(String name, PassBody body) {
+            this.name = name;
+            this.body = body;
+        }
+
+        public Pass read(Resource resource, Usage usage) {
+            if (usage.write) {
+                throw new IllegalArgumentException(usage + " is a write usage, in pass " + name);
+            }
+            accesses.add(new Access(resource, usage));
+            return this;
+        }
+
+        public Pass write(Resource resource, Usage usage) {
+            if (!usage.write) {
+                throw new IllegalArgumentException(usage + " is a read usage, in pass " + name);
+            }
+            accesses.add(new Access(resource, usage));
+            return this;
+        }
+
+        // Keeps the pass even when no output depends on it, e.g. for readbacks to the CPU
+        public Pass sideEffect() {
+            sideEffect = true;
+            return this;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isCulled() {
+            return culled;
+        }
+
+        // Bits for glMemoryBarrier before the pass runs, 0 when no barrier is needed
+        public int getBarrierBits() {
+            return barrierBits;
+        }
+
+        boolean writes(Resource resource) {
+            for (Access access : accesses) {
+                if (access.resource == resource && access.usage.write) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    // Physical texture or buffer shared by transients with disjoint lifetimes. A texture slot is created with
+    // the format of its first resource, the others get texture views of it in their own format
+    public static class Slot {
+        final int index;
+        final boolean buffer;
+        final int width;
+        final int height;
+        final int samples;
+        final int format;
+        long size;
+        final List<Resource> resources = new ArrayList<>();
+        int lastPass;
+
+        Slot(int index, Resource resource) {
+            this.index = index;
+            buffer = resource.buffer;
+            width = resource.width;
+            height = resource.height;
+            samples = resource.samples;
+            format = resource.format;
+            size = resource.size;
+        }
+
+        public long getBytes() {
+            return buffer ? size : (long) width * height * samples * getTexelBytes(format);
+        }
+
+        public List<Resource> getResources() {
+            return resources;
+        }
+
+        // Describes the physical object, slots with equal keys can reuse each other's GL objects between compiles
+        public String getKey() {
+            return buffer ? "buffer " + size
+                    : String.format(Locale.ROOT, "texture %dx%d %dx 0x%x", width, height, samples, format);
+        }
+
+        boolean accepts(Resource resource) {
+            if (buffer != resource.buffer) {
+                return false;
+            }
+            if (buffer) {
+                return true;
+            }
+            return width == resource.width && height == resource.height && samples == resource.samples
+                    && getViewClass(format) == getViewClass(resource.format);
+        }
+    }
+
+    final List<Resource> resources = new ArrayList<>();
+    final List<Pass> passes = new ArrayList<>();
+
+    // Compiled state
+    private final List<Pass> compiledPasses = new ArrayList<>();
+    private final List<Slot> slots = new ArrayList<>();
+    private boolean compiled;
+
+    public Resource createTexture(String name, int width, int height, int format, int samples) {
+        return add(new Resource(name, false, false, 0, width, height, format, samples, 0));
+    }
+
+    public Resource createBuffer(String name, long size) {
+        return add(new Resource(name, true, false, 0, 0, 0, 0, 1, size));
+    }
+
+    // A texture owned outside the graph. Texture 0 stands for the default framebuffer
+    public Resource importTexture(String name, int texture, int width, int height, int format, int samples) {
+        return add(new Resource(name, false, true, texture, width, height, format, samples, 0));
+    }
+
+    public Resource importBuffer(String name, int buffer, long size) {
+        return add(new Resource(name, true, true, buffer, 0, 0, 0, 1, size));
+    }
+
+    // Marks a resource as a result of the frame. Passes that do not contribute to an output are culled
+    public void markOutput(Resource resource) {
+        resource.output = true;
+        compiled = false;
+    }
+
+    // Passes run in the order they are added, after culling
+    public Pass addPass(String name, PassBody body) {
+        Pass pass = new Pass(name, body);
+        passes.add(pass);
+        compiled = false;
+        return pass;
+    }
+
+    public void compile() {
+        compiledPasses.clear();
+        slots.clear();
+        cull();
+        computeLifetimes();
+        assignSlots();
+        deriveBarriers();
+        compiled = true;
+    }
+
+    public boolean isCompiled() {
+        return compiled;
+    }
+
+    public List<Pass> getPasses() {
+        return passes;
+    }
+
+    // Passes that survived culling, in execution order
+    public List<Pass> getCompiledPasses() {
+        return compiledPasses;
+    }
+
+    public List<Resource> getResources() {
+        return resources;
+    }
+
+    public List<Slot> getSlots() {
+        return slots;
+    }
+
+    // Memory of every used transient if each had its own texture or buffer
+    public long getTransientBytes() {
+        long bytes = 0;
+        for (Resource resource : resources) {
+            if (!resource.imported && resource.firstPass >= 0) {
+                bytes += resource.getBytes();
+            }
+        }
+        return bytes;
+    }
+
+    // Memory of the slots the transients share
+    public long getAllocatedBytes() {
+        long bytes = 0;
+        for (Slot slot : slots) {
+            bytes += slot.getBytes();
+        }
+        return bytes;
+    }
+
+    // Most transient memory alive during any one pass, the least any aliasing could allocate
+    public long getPeakLiveBytes() {
+        long peak = 0;
+        for (int pass = 0; pass < compiledPasses.size(); pass++) {
+            long live = 0;
+            for (Resource resource : resources) {
+                if (!resource.imported && resource.firstPass >= 0 && resource.firstPass <= pass && pass <= resource.lastPass) {
+                    live += resource.getBytes();
+                }
+            }
+            peak = Math.max(peak, live);
+        }
+        return peak;
+    }
+
+    // Walks the passes backwards keeping the ones that write an output or a resource a kept pass reads
+    private void cull() {
+        Map<Resource, Boolean> needed = new HashMap<>();
+        for (int i = passes.size() - 1; i >= 0; i--) {
+            Pass pass = passes.get(i);
+            boolean keep = pass.sideEffect;
+            for (Access access : pass.accesses) {
+                if (access.usage.write && (access.resource.output || needed.containsKey(access.resource))) {
+                    keep = true;
+                }
+            }
+            pass.culled = !keep;
+            pass.barrierBits = 0;
+            if (keep) {
+                for (Access access : pass.accesses) {
+                    if (!access.usage.write) {
+                        needed.put(access.resource, true);
+                    }
+                }
+            }
+        }
+        for (Pass pass : passes) {
+            if (!pass.culled) {
+                compiledPasses.add(pass);
+            }
+        }
+    }
+
+    private void computeLifetimes() {
+        for (Resource resource : resources) {
+            resource.firstPass = -1;
+            resource.lastPass = -1;
+            resource.slot = null;
+        }
+        for (int i = 0; i < compiledPasses.size(); i++) {
+            Pass pass = compiledPasses.get(i);
+            for (Access access : pass.accesses) {
+                Resource resource = access.resource;
+                if (resource.firstPass < 0) {
+                    if (!resource.imported && !access.usage.write) {
+                        throw new IllegalStateException("Pass " + pass.name + " reads " + resource.name
+                                + " before any pass writes it");
+                    }
+                    resource.firstPass = i;
+                }
+                resource.lastPass = i;
+            }
+        }
+    }
+
+    // Greedy interval allocation in order of first use. Buffers take the slot that wastes the least memory
+    private void assignSlots() {
+        List<Resource> transients = new ArrayList<>();
+        for (Resource resource : resources) {
+            if (!resource.imported && resource.firstPass >= 0) {
+                transients.add(resource);
+            }
+        }
+        transients.sort((a, b) -> Integer.compare(a.firstPass, b.firstPass));
+
+        for (Resource resource : transients) {
+            Slot best = null;
+            for (Slot slot : slots) {
+                if (slot.lastPass < resource.firstPass && slot.accepts(resource)
+                        && (best == null || cost(slot, resource) < cost(best, resource))) {
+                    best = slot;
+                }
+            }
+            if (best == null) {
+                best = new Slot(slots.size(), resource);
+                slots.add(best);
+            }
+            best.size = Math.max(best.size, resource.size);
+            best.lastPass = resource.lastPass;
+            best.resources.add(resource);
+            resource.slot = best;
+        }
+    }
+
+    // Memory a slot wastes or has to grow by to hold a resource, textures in the slot's own format first
+    private static long cost(Slot slot, Resource resource) {
+        if (slot.buffer) {
+            return Math.abs(slot.size - resource.size);
+        }
+        return slot.format == resource.format ? 0 : 1;
+    }
+
+    // Replays two frames so accesses early in a frame see the incoherent writes of the previous one.
+    // A barrier bit issued before a pass makes every earlier write visible to that kind of access,
+    // so a bit is only needed if a write to the accessed slot came after the bit was last issued
+    private void deriveBarriers() {
+        Map<Object, Integer> lastIncoherentWrite = new HashMap<>();
+        Map<Integer, Integer> lastBarrier = new HashMap<>();
+        int count = compiledPasses.size();
+        for (int step = 0; step < count * 2; step++) {
+            Pass pass = compiledPasses.get(step % count);
+            int bits = 0;
+            for (Access access : pass.accesses) {
+                Integer write = lastIncoherentWrite.get(getMemory(access.resource));
+                if (write != null && write < step && lastBarrier.getOrDefault(access.usage.barrierBit, -1) <= write) {
+                    bits |= access.usage.barrierBit;
+                }
+            }
+            for (int bit = 1; bit != 0; bit <<= 1) {
+                if ((bits & bit) != 0) {
+                    lastBarrier.put(bit, step);
+                }
+            }
+            for (Access access : pass.accesses) {
+                if (access.usage.incoherent) {
+                    lastIncoherentWrite.put(getMemory(access.resource), step);
+                }
+            }
+            if (step >= count) {
+                pass.barrierBits = bits;
+            }
+        }
+    }
+
+    // Memory a resource lives in, its slot for transients
+    private static Object getMemory(Resource resource) {
+        return resource.slot != null ? resource.slot : resource;
+    }
+
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        report.append("Passes\n");
+        for (Pass pass : passes) {
+            report.append(String.format(Locale.ROOT, "  %-18s %s%n", pass.name,
+                    pass.culled ? "culled" : pass.barrierBits == 0 ? "" : "glMemoryBarrier(" + getBarrierNames(pass.barrierBits) + ")"));
+        }
+        report.append("Transient resources\n");
+        for (Resource resource : resources) {
+            if (resource.imported) {
+                continue;
+            }
+            if (resource.firstPass < 0) {
+                report.append(String.format(Locale.ROOT, "  %-18s unused%n", resource.name));
+            } else {
+                report.append(String.format(Locale.ROOT, "  %-18s %8.2f MB  passes %d-%d  slot %d%n", resource.name,
+                        resource.getBytes() / 1048576.0, resource.firstPass, resource.lastPass, resource.slot.index));
+            }
+        }
+        long transientBytes = getTransientBytes();
+        long allocatedBytes = getAllocatedBytes();
+        report.append(String.format(Locale.ROOT, "Without aliasing %.2f MB, with aliasing %.2f MB in %d slots, saved %.2f MB"
+                        + " (peak live %.2f MB)%n", transientBytes / 1048576.0, allocatedBytes / 1048576.0, slots.size(),
+                (transientBytes - allocatedBytes) / 1048576.0, getPeakLiveBytes() / 1048576.0));
+        return report.toString();
+    }
+
+    static String getBarrierNames(int bits) {
+        StringBuilder names = new StringBuilder();
+        for (Usage usage : Usage.values()) {
+            String name = getBarrierName(usage.barrierBit);
+            if ((bits & usage.barrierBit) != 0 && names.indexOf(name) < 0) {
+                names.append(names.length() == 0 ? "" : " | ").append(name);
+            }
+        }
+        return names.toString();
+    }
+
+    private static String getBarrierName(int bit) {
+        switch (bit) {
+            case GL_TEXTURE_FETCH_BARRIER_BIT:
+                return "GL_TEXTURE_FETCH_BARRIER_BIT";
+            case GL_SHADER_IMAGE_ACCESS_BARRIER_BIT:
+                return "GL_SHADER_IMAGE_ACCESS_BARRIER_BIT";
+            case GL_SHADER_STORAGE_BARRIER_BIT:
+                return "GL_SHADER_STORAGE_BARRIER_BIT";
+            case GL_FRAMEBUFFER_BARRIER_BIT:
+                return "GL_FRAMEBUFFER_BARRIER_BIT";
+            default:
+                return "0x" + Integer.toHexString(bit);
+        }
+    }
+
+    private Resource add(Resource resource) {
+        resources.add(resource);
+        compiled = false;
+        return resource;
+    }
+
+    // Bytes per texel of the render target and storage formats the renderer uses
+    static int getTexelBytes(int format) {
+        switch (format) {
+            case GL_RGBA32F:
+                return 16;
+            case GL_RGBA16F:
+            case GL_RG32F:
+                return 8;
+            case GL_RGBA8:
+            case GL_R32F:
+            case GL_RG16F:
+            case GL_R11F_G11F_B10F:
+            case GL_DEPTH_COMPONENT32F:
+            case GL_DEPTH24_STENCIL8:
+                return 4;
+            case GL_R16F:
+                return 2;
+            default:
+                throw new IllegalArgumentException("Unsupported texture format 0x" + Integer.toHexString(format));
+        }
+    }
+
+    // Formats with the same view class can share storage through texture views. Depth formats only match themselves
+    static int getViewClass(int format) {
+        switch (format) {
+            case GL_DEPTH_COMPONENT32F:
+            case GL_DEPTH24_STENCIL8:
+                return -format;
+            default:
+                return getTexelBytes(format) * 8;
+        }
+    }
+}
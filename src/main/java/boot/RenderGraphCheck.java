@@ -0,0 +1,199 @@
+package boot;
+
+import org.joml.Random;
+
+import static org.lwjgl.opengl.GL30.GL_RGBA16F;
+import static org.lwjgl.opengl.GL43.GL_SHADER_STORAGE_BARRIER_BIT;
+
+// Randomized checks of the renderer's frame graph, compiled headless for random sizes, sample counts and culling modes:
+//   culling     depth_debug culls the depth pre-pass and light culling, the other views keep every pass they declare
+//   aliasing    with 1 sample hdr depth shares the depth texture's slot, multisampled it cannot and nothing is shared
+//   barriers    light accumulation and light_debug issue exactly GL_SHADER_STORAGE_BARRIER_BIT for the light lists.
+//               Light culling needs none, the tile depth bounds it wrote last frame are covered by that same barrier
+//   memory      transient, allocated and peak live bytes match the sizes of the resources alive in each pass
+//   history     a storage buffer written at the end of a frame and read at the start of the next gets its barrier
+//               before the read when no pass in between issues one
+//   lifetimes   compiling a pass that reads a transient no earlier pass writes throws IllegalStateException
+// Exits with 1 on the first failure, so it can fail a build.
+// Usage: RenderGraphCheck [trials] [seed]
+public class RenderGraphCheck {
+    static final int[] SAMPLES = {1, 2, 4, 8};
+
+    public static void main(String[] args) {
+        int trials = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+
+        int graphs = 0;
+        long saved = 0;
+        for (int trial = 0; trial < trials; trial++) {
+            Random rand = new Random(seed + trial);
+            // The first trials use the default size with and without multisampling
+            int width = trial < 2 ? (int) Main.SCREEN_SIZE.x : 1 + rand.nextInt(2560);
+            int height = trial < 2 ? (int) Main.SCREEN_SIZE.y : 1 + rand.nextInt(1600);
+            int samples = trial < 2 ? trial * 3 + 1 : SAMPLES[rand.nextInt(SAMPLES.length)];
+            boolean incremental = rand.nextFloat() < 0.5f;
+            try {
+                for (ForwardPlusGraph.View view : ForwardPlusGraph.View.values()) {
+                    ForwardPlusGraph frame = new ForwardPlusGraph(width, height, samples, view, incremental,
+                            new ForwardPlusGraph.Buffers(), new ForwardPlusGraph.Passes() {
+                            });
+                    checkCulling(frame, view, samples);
+                    checkAliasing(frame, view, samples);
+                    checkBarriers(frame);
+                    saved += checkMemory(frame, view, width, height, samples, incremental);
+                    graphs++;
+                }
+                checkHistory();
+                checkReadBeforeWrite();
+            } catch (IllegalStateException e) {
+                System.err.printf("Trial %d (seed %d, %dx%d, %d samples, %s culling): %s%n", trial, seed + trial,
+                        width, height, samples, incremental ? "incremental" : "full", e.getMessage());
+                System.exit(1);
+            }
+        }
+        System.out.printf("%d trials, %d frame graphs passed, aliasing saved %.2f MB in total%n", trials, graphs,
+                saved / 1048576.0);
+    }
+
+    static void checkCulling(ForwardPlusGraph frame, ForwardPlusGraph.View view, int samples) {
+        for (RenderGraph.Pass pass : frame.getGraph().getPasses()) {
+            boolean culled = view == ForwardPlusGraph.View.DEPTH_DEBUG
+                    && (pass.getName().equals("depth") || pass.getName().equals("light culling"));
+            if (pass.isCulled() != culled) {
+                throw new IllegalStateException("Pass " + pass.getName() + (culled ? " is not culled" : " is culled")
+                        + " in the " + view + " view");
+            }
+        }
+        int expected = view == ForwardPlusGraph.View.SCENE ? (samples > 1 ? 5 : 4)
+                : view == ForwardPlusGraph.View.LIGHT_DEBUG ? 3 : 1;
+        if (frame.getGraph().getCompiledPasses().size() != expected) {
+            throw new IllegalStateException(view + " view runs " + frame.getGraph().getCompiledPasses().size()
+                    + " passes instead of " + expected);
+        }
+    }
+
+    static void checkAliasing(ForwardPlusGraph frame, ForwardPlusGraph.View view, int samples) {
+        if (view != ForwardPlusGraph.View.SCENE) {
+            return;
+        }
+        boolean shared = frame.getDepth().getSlot() == frame.getHdrDepth().getSlot();
+        if (shared != (samples == 1)) {
+            throw new IllegalStateException("Depth and hdr depth " + (shared ? "share" : "do not share")
+                    + " a slot with " + samples + " samples");
+        }
+        for (RenderGraph.Slot slot : frame.getGraph().getSlots()) {
+            int expected = samples == 1 && slot == frame.getDepth().getSlot() ? 2 : 1;
+            if (slot.getResources().size() != expected) {
+                throw new IllegalStateException("Slot of " + slot.getResources().get(0).getName() + " holds "
+                        + slot.getResources().size() + " resources instead of " + expected);
+            }
+        }
+    }
+
+    static void checkBarriers(ForwardPlusGraph frame) {
+        for (RenderGraph.Pass pass : frame.getGraph().getCompiledPasses()) {
+            int expected = pass.getName().equals("light accumulation") || pass.getName().equals("light_debug")
+                    ? GL_SHADER_STORAGE_BARRIER_BIT : 0;
+            if (pass.getBarrierBits() != expected) {
+                throw new IllegalStateException("Pass " + pass.getName() + " issues barrier "
+                        + getBarrierNames(pass.getBarrierBits()) + " instead of " + getBarrierNames(expected));
+            }
+        }
+    }
+
+    // Returns the bytes aliasing saved
+    static long checkMemory(ForwardPlusGraph frame, ForwardPlusGraph.View view, int width, int height, int samples,
+                            boolean incremental) {
+        long pixels = (long) width * height;
+        long tiles = (long) ((width + 15) / 16) * ((height + 15) / 16);
+        long depth = pixels * 4;
+        // The light lists are imported with incremental culling
+        long visible = incremental ? 0 : tiles * Integer.BYTES * LightCulling.MAX_LIGHTS_PER_TILE;
+        long hdrColor = pixels * samples * 8;
+        long hdrDepth = pixels * samples * 4;
+        long hdrResolved = samples > 1 ? pixels * 8 : 0;
+
+        long transientBytes;
+        long saved;
+        long peak;
+        switch (view) {
+            case SCENE:
+                transientBytes = depth + visible + hdrColor + hdrDepth + hdrResolved;
+                saved = samples == 1 ? depth : 0;
+                // Live sets of depth, light culling, light accumulation and resolve or tonemap
+                peak = Math.max(Math.max(depth, depth + visible),
+                        Math.max(visible + hdrColor + hdrDepth, hdrColor + hdrResolved));
+                break;
+            case LIGHT_DEBUG:
+                transientBytes = depth + visible;
+                saved = 0;
+                peak = depth + visible;
+                break;
+            default:
+                transientBytes = 0;
+                saved = 0;
+                peak = 0;
+                break;
+        }
+        RenderGraph graph = frame.getGraph();
+        if (graph.getTransientBytes() != transientBytes) {
+            throw new IllegalStateException(view + " view has " + graph.getTransientBytes()
+                    + " transient bytes instead of " + transientBytes);
+        }
+        if (graph.getTransientBytes() - graph.getAllocatedBytes() != saved) {
+            throw new IllegalStateException(view + " view saves " + (graph.getTransientBytes() - graph.getAllocatedBytes())
+                    + " bytes instead of " + saved);
+        }
+        if (graph.getPeakLiveBytes() != peak) {
+            throw new IllegalStateException(view + " view has " + graph.getPeakLiveBytes()
+                    + " peak live bytes instead of " + peak);
+        }
+        return saved;
+    }
+
+    static void checkHistory() {
+        RenderGraph graph = new RenderGraph();
+        RenderGraph.Resource backbuffer = graph.importTexture("backbuffer", 0, 64, 64, GL_RGBA16F, 1);
+        graph.markOutput(backbuffer);
+        RenderGraph.Resource history = graph.importBuffer("history", 0, 1024);
+        RenderGraph.Pass read = graph.addPass("reads history", executor -> {
+                })
+                .read(history, RenderGraph.Usage.STORAGE_READ)
+                .write(backbuffer, RenderGraph.Usage.COLOR_ATTACHMENT);
+        RenderGraph.Pass write = graph.addPass("writes history", executor -> {
+                })
+                .write(history, RenderGraph.Usage.STORAGE_WRITE)
+                .sideEffect();
+        graph.compile();
+        if (read.getBarrierBits() != GL_SHADER_STORAGE_BARRIER_BIT || write.getBarrierBits() != 0) {
+            throw new IllegalStateException("A buffer written at the end of the previous frame gets barrier "
+                    + getBarrierNames(read.getBarrierBits()) + " before the read and "
+                    + getBarrierNames(write.getBarrierBits()) + " before the write");
+        }
+    }
+
+    static void checkReadBeforeWrite() {
+        RenderGraph graph = new RenderGraph();
+        RenderGraph.Resource backbuffer = graph.importTexture("backbuffer", 0, 64, 64, GL_RGBA16F, 1);
+        graph.markOutput(backbuffer);
+        RenderGraph.Resource texture = graph.createTexture("texture", 64, 64, GL_RGBA16F, 1);
+        graph.addPass("reads first", executor -> {
+                })
+                .read(texture, RenderGraph.Usage.SAMPLED)
+                .write(backbuffer, RenderGraph.Usage.COLOR_ATTACHMENT);
+        graph.addPass("writes after", executor -> {
+                })
+                .write(texture, RenderGraph.Usage.COLOR_ATTACHMENT)
+                .write(backbuffer, RenderGraph.Usage.COLOR_ATTACHMENT);
+        try {
+            graph.compile();
+        } catch (IllegalStateException e) {
+            return;
+        }
+        throw new IllegalStateException("Compiling a pass that reads a transient before any write did not throw");
+    }
+
+    static String getBarrierNames(int bits) {
+        return bits == 0 ? "none" : RenderGraph.getBarrierNames(bits);
+    }
+}
@@ -0,0 +1,218 @@
+package boot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.GL_TEXTURE_2D_MULTISAMPLE;
+import static org.lwjgl.opengl.GL42.*;
+import static org.lwjgl.opengl.GL43.*;
+
+// Creates the GL objects of a compiled RenderGraph and runs its passes. Physical textures and buffers are pooled
+// by description across compiles, so recompiling after a resize or a change of debug view reuses what still fits
+// and deletes what no longer does instead of leaving it allocated. Must be used on the thread owning the context
+public class RenderGraphExecutor {
+    // Physical objects by Slot.getKey, several when a graph has more than one slot with the same description
+    private final Map<String, List<Integer>> pool = new HashMap<>();
+    // GL object per transient resource, a texture view when the resource's format differs from its slot's
+    private final Map<RenderGraph.Resource, Integer> objects = new HashMap<>();
+    private final List<Integer> views = new ArrayList<>();
+    // Draw framebuffer per pass with attachments and read framebuffer per pass with a blit source
+    private final Map<RenderGraph.Pass, Integer> drawFramebuffers = new HashMap<>();
+    private final Map<RenderGraph.Pass, Integer> readFramebuffers = new HashMap<>();
+    private RenderGraph graph;
+    private RenderGraph.Pass currentPass;
+
+    // Compiles the graph if needed and creates the GL objects for it
+    public void realize(RenderGraph graph) {
+        if (!graph.isCompiled()) {
+            graph.compile();
+        }
+        releaseFramebuffers();
+        for (int view : views) {
+            glDeleteTextures(view);
+        }
+        views.clear();
+        objects.clear();
+
+        Map<String, List<Integer>> unused = new HashMap<>(pool);
+        pool.clear();
+        for (RenderGraph.Slot slot : graph.getSlots()) {
+            List<Integer> candidates = unused.get(slot.getKey());
+            int object = candidates != null && !candidates.isEmpty() ? candidates.remove(candidates.size() - 1)
+                    : create(slot);
+            pool.computeIfAbsent(slot.getKey(), key -> new ArrayList<>()).add(object);
+            for (RenderGraph.Resource resource : slot.getResources()) {
+                objects.put(resource, slot.buffer || resource.format == slot.format ? object : createView(slot, object, resource));
+            }
+        }
+        for (Map.Entry<String, List<Integer>> entry : unused.entrySet()) {
+            for (int object : entry.getValue()) {
+                if (entry.getKey().startsWith("buffer")) {
+                    glDeleteBuffers(object);
+                } else {
+                    glDeleteTextures(object);
+                }
+            }
+        }
+
+        for (RenderGraph.Pass pass : graph.getCompiledPasses()) {
+            createFramebuffers(pass);
+        }
+        this.graph = graph;
+    }
+
+    // Runs the compiled passes, issuing the derived memory barriers and binding each pass's framebuffer
+    public void execute() {
+        for (RenderGraph.Pass pass : graph.getCompiledPasses()) {
+            if (pass.barrierBits != 0) {
+                glMemoryBarrier(pass.barrierBits);
+            }
+            Integer framebuffer = drawFramebuffers.get(pass);
+            if (framebuffer != null) {
+                glBindFramebuffer(GL_DRAW_FRAMEBUFFER, framebuffer);
+            }
+            Integer readFramebuffer = readFramebuffers.get(pass);
+            if (readFramebuffer != null) {
+                glBindFramebuffer(GL_READ_FRAMEBUFFER, readFramebuffer);
+            }
+            currentPass = pass;
+            pass.body.execute(this);
+        }
+        currentPass = null;
+        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+    }
+
+    // GL texture or buffer of a resource
+    public int getObject(RenderGraph.Resource resource) {
+        if (resource.imported) {
+            return resource.object;
+        }
+        Integer object = objects.get(resource);
+        if (object == null) {
+            throw new IllegalStateException("Resource " + resource.name + " is not used by any compiled pass");
+        }
+        return object;
+    }
+
+    public RenderGraph.Pass getCurrentPass() {
+        return currentPass;
+    }
+
+    public void delete() {
+        releaseFramebuffers();
+        for (int view : views) {
+            glDeleteTextures(view);
+        }
+        views.clear();
+        for (Map.Entry<String, List<Integer>> entry : pool.entrySet()) {
+            for (int object : entry.getValue()) {
+                if (entry.getKey().startsWith("buffer")) {
+                    glDeleteBuffers(object);
+                } else {
+                    glDeleteTextures(object);
+                }
+            }
+        }
+        pool.clear();
+        objects.clear();
+    }
+
+    private int create(RenderGraph.Slot slot) {
+        if (slot.buffer) {
+            int buffer = glGenBuffers();
+            glBindBuffer(GL_SHADER_STORAGE_BUFFER, buffer);
+            glBufferData(GL_SHADER_STORAGE_BUFFER, slot.size, GL_DYNAMIC_COPY);
+            glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+            return buffer;
+        }
+        int texture = glGenTextures();
+        if (slot.samples > 1) {
+            glBindTexture(GL_TEXTURE_2D_MULTISAMPLE, texture);
+            glTexStorage2DMultisample(GL_TEXTURE_2D_MULTISAMPLE, slot.samples, slot.format, slot.width, slot.height, true);
+            glBindTexture(GL_TEXTURE_2D_MULTISAMPLE, 0);
+        } else {
+            glBindTexture(GL_TEXTURE_2D, texture);
+            glTexStorage2D(GL_TEXTURE_2D, 1, slot.format, slot.width, slot.height);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+            glBindTexture(GL_TEXTURE_2D, 0);
+        }
+        return texture;
+    }
+
+    private int createView(RenderGraph.Slot slot, int texture, RenderGraph.Resource resource) {
+        // Texture views need a name that has never been bound
+        int view = glGenTextures();
+        glTextureView(view, slot.samples > 1 ? GL_TEXTURE_2D_MULTISAMPLE : GL_TEXTURE_2D, texture, resource.format,
+                0, 1, 0, 1);
+        views.add(view);
+        return view;
+    }
+
+    private void createFramebuffers(RenderGraph.Pass pass) {
+        int colorAttachments = 0;
+        int framebuffer = -1;
+        for (RenderGraph.Access access : pass.accesses) {
+            RenderGraph.Usage usage = access.usage;
+            if (usage != RenderGraph.Usage.COLOR_ATTACHMENT && usage != RenderGraph.Usage.DEPTH_ATTACHMENT
+                    && usage != RenderGraph.Usage.BLIT_DESTINATION && usage != RenderGraph.Usage.BLIT_SOURCE) {
+                continue;
+            }
+            // Texture 0 is the default framebuffer
+            if (access.resource.imported && access.resource.object == 0) {
+                (usage == RenderGraph.Usage.BLIT_SOURCE ? readFramebuffers : drawFramebuffers).put(pass, 0);
+                continue;
+            }
+            int texture = getObject(access.resource);
+            int target = access.resource.samples > 1 ? GL_TEXTURE_2D_MULTISAMPLE : GL_TEXTURE_2D;
+            boolean depth = RenderGraph.getViewClass(access.resource.format) < 0;
+            if (usage == RenderGraph.Usage.BLIT_SOURCE) {
+                int read = glGenFramebuffers();
+                glBindFramebuffer(GL_READ_FRAMEBUFFER, read);
+                glFramebufferTexture2D(GL_READ_FRAMEBUFFER, depth ? GL_DEPTH_ATTACHMENT : GL_COLOR_ATTACHMENT0,
+                        target, texture, 0);
+                readFramebuffers.put(pass, read);
+                continue;
+            }
+            if (framebuffer < 0) {
+                framebuffer = glGenFramebuffers();
+                drawFramebuffers.put(pass, framebuffer);
+            }
+            glBindFramebuffer(GL_DRAW_FRAMEBUFFER, framebuffer);
+            int attachment = usage == RenderGraph.Usage.DEPTH_ATTACHMENT ? GL_DEPTH_ATTACHMENT
+                    : GL_COLOR_ATTACHMENT0 + colorAttachments++;
+            glFramebufferTexture2D(GL_DRAW_FRAMEBUFFER, attachment, target, texture, 0);
+        }
+        if (framebuffer >= 0) {
+            if (colorAttachments == 0) {
+                glDrawBuffer(GL_NONE);
+            }
+            if (glCheckFramebufferStatus(GL_DRAW_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE) {
+                throw new IllegalStateException("Framebuffer of pass " + pass.name + " is not complete");
+            }
+        }
+        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+    }
+
+    private void releaseFramebuffers() {
+        for (int framebuffer : drawFramebuffers.values()) {
+            if (framebuffer != 0) {
+                glDeleteFramebuffers(framebuffer);
+            }
+        }
+        for (int framebuffer : readFramebuffers.values()) {
+            if (framebuffer != 0) {
+                glDeleteFramebuffers(framebuffer);
+            }
+        }
+        drawFramebuffers.clear();
+        readFramebuffers.clear();
+    }
+}
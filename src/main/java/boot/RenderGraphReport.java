@@ -0,0 +1,23 @@
+package boot;
+
+// Compiles the renderer's frame graph for every view without a GL context and prints the passes that run,
+// the barriers between them, the transient lifetimes and how much memory aliasing saves.
+// Usage: RenderGraphReport [width] [height] [samples] [full|incremental]
+public class RenderGraphReport {
+
+    public static void main(String[] args) {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : (int) Main.SCREEN_SIZE.x;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : (int) Main.SCREEN_SIZE.y;
+        int samples = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        boolean incremental = args.length > 3 && args[3].equals("incremental");
+
+        for (ForwardPlusGraph.View view : ForwardPlusGraph.View.values()) {
+            ForwardPlusGraph frame = new ForwardPlusGraph(width, height, samples, view, incremental,
+                    new ForwardPlusGraph.Buffers(), new ForwardPlusGraph.Passes() {
+                    });
+            System.out.printf("%s, %dx%d, %d samples, %s culling%n", view, width, height, samples,
+                    incremental ? "incremental" : "full");
+            System.out.println(frame.getGraph().getReport());
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package boot;
+
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+// Decides which point lights get shadow maps, where in the shadow atlas they go and which shadow views are
+// rendered each frame. Runs on the CPU so it can be tested and benchmarked without a window.
+//
+// Every frame the lights are ranked by the size of their bounding sphere on screen. Lights are given square tiles
+// sized to match, six for a cube map or two for a dual paraboloid map when the tile is small, allocated from a
+// quadtree so freed tiles merge back. Lights that no longer fit evict less important lights, starting with
+// lights off screen. A rendered shadow map stays valid until its light moves, its tiles change,
+// or static geometry inside the light's radius changes, and lights touching dynamic geometry are rendered again
+// every frame. At most viewBudget faces are rendered per frame, the most important and most outdated first,
+// and the others keep last frame's shadows.
+public class ShadowAtlas {
+    public enum Projection {
+        CUBE(6),
+        DUAL_PARABOLOID(2);
+
+        final int faces;
+
+        Projection(int faces) {
+            this.faces = faces;
+        }
+
+        public int getFaces() {
+            return faces;
+        }
+    }
+
+    // One face of a light's shadow map to render this frame
+    public static class ShadowView {
+        final int light;
+        final int face;
+        final Projection projection;
+        final ShadowAtlasAllocator.Tile tile;
+
+        ShadowView(int light, int face, Projection projection, ShadowAtlasAllocator.Tile tile) {
+            this.light = light;
+            this.face = face;
+            this.projection = projection;
+            this.tile = tile;
+        }
+
+        public int getLight() {
+            return light;
+        }
+
+        public int getFace() {
+            return face;
+        }
+
+        public Projection getProjection() {
+            return projection;
+        }
+
+        public ShadowAtlasAllocator.Tile getTile() {
+            return tile;
+        }
+    }
+
+    // Shadow map state of one light
+    static class Entry {
+        final int light;
+        final Vector4f position = new Vector4f();
+        float radius;
+        Projection projection;
+        ShadowAtlasAllocator.Tile[] tiles;
+        // Tile size asked for when the tiles were allocated, can be larger than the tiles when the atlas was full
+        int requestedSize;
+        // Bit per face that has to be rendered again
+        int pendingFaces;
+        // Every face has been rendered once since the tiles were allocated
+        boolean ready;
+        float importance;
+        float priority;
+        int staleFrames;
+
+        Entry(int light) {
+            this.light = light;
+        }
+
+        int getSize() {
+            return tiles == null ? 0 : tiles[0].size;
+        }
+    }
+
+    // Cube map faces in the order of GL_TEXTURE_CUBE_MAP_POSITIVE_X and onwards, then the two paraboloids
+    private static final Vector3f[] CUBE_DIRECTIONS = {
+            new Vector3f(1, 0, 0), new Vector3f(-1, 0, 0), new Vector3f(0, 1, 0),
+            new Vector3f(0, -1, 0), new Vector3f(0, 0, 1), new Vector3f(0, 0, -1)};
+    private static final Vector3f[] CUBE_UPS = {
+            new Vector3f(0, -1, 0), new Vector3f(0, -1, 0), new Vector3f(0, 0, 1),
+            new Vector3f(0, 0, -1), new Vector3f(0, -1, 0), new Vector3f(0, -1, 0)};
+    private static final Vector3f[] PARABOLOID_DIRECTIONS = {new Vector3f(0, 0, -1), new Vector3f(0, 0, 1)};
+
+    final ShadowAtlasAllocator allocator;
+    final int maxTileSize;
+    int viewBudget;
+    // Tiles of this size and smaller use dual paraboloid maps
+    int paraboloidMaxSize;
+    // Texels of a shadow map face per pixel of the light's diameter on screen.
+    // A cube face sees a quarter of the sphere, so half the diameter keeps shadow texels about pixel sized
+    float texelsPerPixel = 0.5f;
+    // Fraction of the atlas the visible lights may ask for before the texel density is lowered
+    float targetOccupancy = 0.75f;
+    // Texel density used this frame
+    private float density;
+
+    private final List<Entry> entries = new ArrayList<>();
+    private final List<float[]> dynamicBounds = new ArrayList<>();
+    private final List<Entry> holders = new ArrayList<>();
+    private final List<Entry> ranked = new ArrayList<>();
+    private final List<ShadowView> views = new ArrayList<>();
+    private final FrustumIntersection frustum = new FrustumIntersection();
+    private final Matrix4f viewProjection = new Matrix4f();
+
+    private int pendingViews;
+    private int allocations;
+    private int evictions;
+
+    public ShadowAtlas(int atlasSize, int minTileSize, int maxTileSize, int viewBudget) {
+        if (Integer.bitCount(maxTileSize) != 1 || maxTileSize < minTileSize || maxTileSize > atlasSize) {
+            throw new IllegalArgumentException("Invalid maximum shadow tile size " + maxTileSize);
+        }
+        allocator = new ShadowAtlasAllocator(atlasSize, minTileSize);
+        this.maxTileSize = maxTileSize;
+        this.viewBudget = viewBudget;
+        paraboloidMaxSize = minTileSize * 2;
+    }
+
+    public void setViewBudget(int viewBudget) {
+        this.viewBudget = viewBudget;
+    }
+
+    public void setParaboloidMaxSize(int paraboloidMaxSize) {
+        this.paraboloidMaxSize = paraboloidMaxSize;
+    }
+
+    public void setTexelsPerPixel(float texelsPerPixel) {
+        this.texelsPerPixel = texelsPerPixel;
+    }
+
+    public void setTargetOccupancy(float targetOccupancy) {
+        this.targetOccupancy = targetOccupancy;
+    }
+
+    // Texels per pixel used by the last update, below texelsPerPixel when the atlas was too small
+    public float getDensity() {
+        return density;
+    }
+
+    // Static geometry inside the box changed, the shadows of lights reaching into it are rendered again
+    public void invalidate(Vector3f min, Vector3f max) {
+        for (Entry entry : entries) {
+            if (overlaps(entry, min.x, min.y, min.z, max.x, max.y, max.z)) {
+                entry.pendingFaces = (1 << entry.projection.faces) - 1;
+            }
+        }
+    }
+
+    // Bounds of geometry that moves this frame. Cleared by update
+    public void addDynamicBounds(Vector3f min, Vector3f max) {
+        dynamicBounds.add(new float[]{min.x, min.y, min.z, max.x, max.y, max.z});
+    }
+
+    // Updates the atlas for this frame and returns the shadow views to render, at most viewBudget of them
+    public List<ShadowView> update(Matrix4f view, Matrix4f projection, float screenHeight,
+                                   List<Main.PointLight> lights) {
+        while (entries.size() < lights.size()) {
+            Entry entry = new Entry(entries.size());
+            entry.projection = Projection.CUBE;
+            entries.add(entry);
+        }
+        while (entries.size() > lights.size()) {
+            release(entries.remove(entries.size() - 1));
+        }
+        allocations = 0;
+        evictions = 0;
+
+        viewProjection.set(projection).mul(view);
+        frustum.set(viewProjection);
+        Vector3f eye = view.invert(new Matrix4f()).getTranslation(new Vector3f());
+        ranked.clear();
+        for (int i = 0; i < lights.size(); i++) {
+            Main.PointLight light = lights.get(i);
+            Entry entry = entries.get(i);
+            float radius = light.paddingAndRadius.w;
+            if (!entry.position.equals(light.position) || entry.radius != radius) {
+                entry.position.set(light.position);
+                entry.radius = radius;
+                entry.pendingFaces = (1 << entry.projection.faces) - 1;
+            }
+            for (float[] bounds : dynamicBounds) {
+                if (overlaps(entry, bounds[0], bounds[1], bounds[2], bounds[3], bounds[4], bounds[5])) {
+                    entry.pendingFaces = (1 << entry.projection.faces) - 1;
+                }
+            }
+
+            entry.importance = 0.0f;
+            if (frustum.testSphere(light.position.x, light.position.y, light.position.z, radius)) {
+                // Diameter of the bounding sphere on screen in pixels, the whole screen height from inside it
+                float distance = Math.max(radius, eye.distance(light.position.x, light.position.y, light.position.z));
+                entry.importance = Math.min(radius * projection.m11() / distance, 1.0f) * screenHeight;
+                ranked.add(entry);
+            }
+        }
+        dynamicBounds.clear();
+
+        // Lower the texel density when the visible lights would not fit, so every light gets smaller tiles
+        // instead of the closest lights taking the whole atlas
+        long requestedArea = 0;
+        for (Entry entry : ranked) {
+            int size = getTileSize(entry.importance, texelsPerPixel);
+            requestedArea += (long) size * size * (size <= paraboloidMaxSize ? 2 : 6);
+        }
+        double availableArea = (double) allocator.getAtlasSize() * allocator.getAtlasSize() * targetOccupancy;
+        density = texelsPerPixel * (float) Math.min(1.0, Math.sqrt(availableArea / requestedArea));
+
+        // Most important lights get their tiles first and may evict the others
+        ranked.sort(Comparator.comparingDouble((Entry entry) -> entry.importance).reversed()
+                .thenComparingInt(entry -> entry.light));
+        for (Entry entry : ranked) {
+            int size = getTileSize(entry.importance, density);
+            // Grow right away but only shrink once a quarter of the size is enough, so lights near a size boundary
+            // do not thrash. Sizes are compared to the requested size so lights that got smaller tiles stay put
+            if (entry.tiles == null || size > entry.requestedSize || size * 2 < entry.requestedSize) {
+                allocate(entry, size);
+            }
+        }
+
+        return schedule();
+    }
+
+    public List<ShadowView> getViews() {
+        return views;
+    }
+
+    // Atlas tiles of a light, null if it has no shadow map
+    public ShadowAtlasAllocator.Tile[] getTiles(int light) {
+        return light < entries.size() ? entries.get(light).tiles : null;
+    }
+
+    public Projection getProjection(int light) {
+        return entries.get(light).projection;
+    }
+
+    // True when the light has a complete shadow map, possibly from an earlier frame
+    public boolean isReady(int light) {
+        return light < entries.size() && entries.get(light).tiles != null && entries.get(light).ready;
+    }
+
+    // Shadow views that needed rendering this frame, including the ones left for later frames
+    public int getPendingViews() {
+        return pendingViews;
+    }
+
+    public int getAllocations() {
+        return allocations;
+    }
+
+    public int getEvictions() {
+        return evictions;
+    }
+
+    public int getShadowedLights() {
+        return holders.size();
+    }
+
+    public ShadowAtlasAllocator getAllocator() {
+        return allocator;
+    }
+
+    // View matrix of one face of a light's shadow map
+    public static Matrix4f getFaceView(Vector4f position, Projection projection, int face, Matrix4f dest) {
+        Vector3f eye = new Vector3f(position.x, position.y, position.z);
+        if (projection == Projection.CUBE) {
+            Vector3f direction = CUBE_DIRECTIONS[face];
+            return dest.setLookAt(eye.x, eye.y, eye.z, eye.x + direction.x, eye.y + direction.y, eye.z + direction.z,
+                    CUBE_UPS[face].x, CUBE_UPS[face].y, CUBE_UPS[face].z);
+        }
+        Vector3f direction = PARABOLOID_DIRECTIONS[face];
+        return dest.setLookAt(eye.x, eye.y, eye.z, eye.x + direction.x, eye.y + direction.y, eye.z + direction.z,
+                0.0f, 1.0f, 0.0f);
+    }
+
+    int getTileSize(float importance, float density) {
+        int texels = (int) Math.ceil(importance * density);
+        int size = texels <= 1 ? 1 : Integer.highestOneBit(texels - 1) << 1;
+        return Math.max(allocator.getMinTileSize(), Math.min(maxTileSize, size));
+    }
+
+    // Gives the light new tiles of the given size or smaller, evicting less important lights when the atlas is full
+    private void allocate(Entry entry, int size) {
+        release(entry);
+        entry.requestedSize = size;
+        Projection projection = size <= paraboloidMaxSize ? Projection.DUAL_PARABOLOID : Projection.CUBE;
+        ShadowAtlasAllocator.Tile[] tiles = new ShadowAtlasAllocator.Tile[projection.faces];
+        while (true) {
+            int count = 0;
+            while (count < tiles.length && (tiles[count] = allocator.allocate(size)) != null) {
+                count++;
+            }
+            if (count == tiles.length) {
+                break;
+            }
+            for (int i = 0; i < count; i++) {
+                allocator.free(tiles[i]);
+            }
+
+            Entry victim = getEvictionCandidate(entry.importance);
+            if (victim != null) {
+                release(victim);
+                evictions++;
+            } else if (size > allocator.getMinTileSize()) {
+                size /= 2;
+                if (size <= paraboloidMaxSize && projection == Projection.CUBE) {
+                    projection = Projection.DUAL_PARABOLOID;
+                    tiles = new ShadowAtlasAllocator.Tile[projection.faces];
+                }
+            } else {
+                return;
+            }
+        }
+
+        entry.tiles = tiles;
+        entry.projection = projection;
+        entry.pendingFaces = (1 << projection.faces) - 1;
+        entry.ready = false;
+        entry.staleFrames = 0;
+        holders.add(entry);
+        allocations++;
+    }
+
+    // The least important light holding tiles, if it is less important than the given importance
+    private Entry getEvictionCandidate(float importance) {
+        Entry candidate = null;
+        for (Entry holder : holders) {
+            if (holder.importance < importance && (candidate == null || holder.importance < candidate.importance)) {
+                candidate = holder;
+            }
+        }
+        return candidate;
+    }
+
+    private void release(Entry entry) {
+        if (entry.tiles != null) {
+            for (ShadowAtlasAllocator.Tile tile : entry.tiles) {
+                allocator.free(tile);
+            }
+            entry.tiles = null;
+            entry.ready = false;
+            holders.remove(entry);
+        }
+    }
+
+    // Picks the views to render. Lights without a complete shadow map come first, then the rest by importance
+    // times the number of frames they have been waiting, so unimportant lights still get updated eventually
+    private List<ShadowView> schedule() {
+        views.clear();
+        pendingViews = 0;
+        ranked.clear();
+        for (Entry entry : holders) {
+            if (entry.pendingFaces != 0 && entry.importance > 0.0f) {
+                entry.priority = entry.ready ? entry.importance * (entry.staleFrames + 1) : Float.MAX_VALUE;
+                pendingViews += Integer.bitCount(entry.pendingFaces);
+                ranked.add(entry);
+            }
+        }
+        ranked.sort(Comparator.comparingDouble((Entry entry) -> entry.priority).reversed()
+                .thenComparingDouble(entry -> -entry.importance).thenComparingInt(entry -> entry.light));
+
+        for (Entry entry : ranked) {
+            for (int face = 0; face < entry.projection.faces && views.size() < viewBudget; face++) {
+                if ((entry.pendingFaces & (1 << face)) != 0) {
+                    views.add(new ShadowView(entry.light, face, entry.projection, entry.tiles[face]));
+                    entry.pendingFaces &= ~(1 << face);
+                }
+            }
+            if (entry.pendingFaces == 0) {
+                entry.ready = true;
+                entry.staleFrames = 0;
+            } else {
+                entry.staleFrames++;
+            }
+        }
+        return views;
+    }
+
+    private static boolean overlaps(Entry entry, float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        float dx = Math.max(minX - entry.position.x, Math.max(0.0f, entry.position.x - maxX));
+        float dy = Math.max(minY - entry.position.y, Math.max(0.0f, entry.position.y - maxY));
+        float dz = Math.max(minZ - entry.position.z, Math.max(0.0f, entry.position.z - maxZ));
+        return dx * dx + dy * dy + dz * dz <= entry.radius * entry.radius;
+    }
+}
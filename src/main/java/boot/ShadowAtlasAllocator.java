@@ -0,0 +1,222 @@
+package boot;
+
+import java.util.Arrays;
+
+// Quadtree allocator for square power of two tiles in a shadow atlas. Every node covers a square of the atlas
+// and is either free, used, split into four children or covered by a free or used ancestor.
+// Freeing a tile merges it with its siblings when all four are free again, so large tiles stay available.
+// Nodes are stored as a complete quadtree: the children of node i are 4i + 1 to 4i + 4
+public class ShadowAtlasAllocator {
+    static final byte COVERED = 0;
+    static final byte FREE = 1;
+    static final byte USED = 2;
+    static final byte SPLIT = 3;
+
+    // A square of the atlas in texels
+    public static class Tile {
+        final int node;
+        final int x;
+        final int y;
+        final int size;
+
+        Tile(int node, int x, int y, int size) {
+            this.node = node;
+            this.x = x;
+            this.y = y;
+            this.size = size;
+        }
+
+        public int getX() {
+            return x;
+        }
+
+        public int getY() {
+            return y;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return size + "x" + size + " at " + x + "," + y;
+        }
+    }
+
+    final int atlasSize;
+    final int minTileSize;
+    final int levels;
+    // First node index of each level, level 0 being the whole atlas
+    final int[] levelStart;
+    final byte[] state;
+    // Stack of free node indices per level. Entries are not removed when a node stops being free,
+    // so they are checked against state when popped
+    final int[][] freeNodes;
+    final int[] freeCount;
+    long usedArea;
+
+    public ShadowAtlasAllocator(int atlasSize, int minTileSize) {
+        if (Integer.bitCount(atlasSize) != 1 || Integer.bitCount(minTileSize) != 1 || minTileSize > atlasSize) {
+            throw new IllegalArgumentException("Atlas and tile sizes must be powers of two with the tile size "
+                    + "at most the atlas size, got " + atlasSize + " and " + minTileSize);
+        }
+        this.atlasSize = atlasSize;
+        this.minTileSize = minTileSize;
+        levels = Integer.numberOfTrailingZeros(atlasSize / minTileSize) + 1;
+        levelStart = new int[levels + 1];
+        for (int level = 1; level <= levels; level++) {
+            levelStart[level] = levelStart[level - 1] * 4 + 1;
+        }
+        state = new byte[levelStart[levels]];
+        freeNodes = new int[levels][4];
+        freeCount = new int[levels];
+        clear();
+    }
+
+    // Frees every tile
+    public void clear() {
+        Arrays.fill(state, COVERED);
+        Arrays.fill(freeCount, 0);
+        state[0] = FREE;
+        pushFree(0, 0);
+        usedArea = 0;
+    }
+
+    // Allocates a tile of the given power of two size, or returns null if there is no room for it
+    public Tile allocate(int size) {
+        if (Integer.bitCount(size) != 1 || size < minTileSize || size > atlasSize) {
+            throw new IllegalArgumentException("Invalid shadow tile size " + size);
+        }
+        int level = getLevel(size);
+        int node = popFree(level);
+        if (node < 0) {
+            // Split the smallest free tile above the requested level down to it
+            int parentLevel = level - 1;
+            while (parentLevel >= 0 && (node = popFree(parentLevel)) < 0) {
+                parentLevel--;
+            }
+            if (node < 0) {
+                return null;
+            }
+            for (int l = parentLevel; l < level; l++) {
+                state[node] = SPLIT;
+                int child = node * 4 + 1;
+                for (int i = 1; i < 4; i++) {
+                    state[child + i] = FREE;
+                    pushFree(l + 1, child + i);
+                }
+                node = child;
+            }
+        }
+        state[node] = USED;
+        usedArea += (long) size * size;
+        return newTile(node, level);
+    }
+
+    public void free(Tile tile) {
+        int node = tile.node;
+        if (state[node] != USED) {
+            throw new IllegalStateException("Shadow tile " + tile + " is not allocated");
+        }
+        usedArea -= (long) tile.size * tile.size;
+        state[node] = FREE;
+        int level = getLevel(tile.size);
+        // Merge with the siblings while all four are free
+        while (level > 0) {
+            int first = (node - 1) / 4 * 4 + 1;
+            if (state[first] != FREE || state[first + 1] != FREE || state[first + 2] != FREE || state[first + 3] != FREE) {
+                break;
+            }
+            for (int i = 0; i < 4; i++) {
+                state[first + i] = COVERED;
+            }
+            node = (node - 1) / 4;
+            state[node] = FREE;
+            level--;
+        }
+        pushFree(level, node);
+    }
+
+    public int getAtlasSize() {
+        return atlasSize;
+    }
+
+    public int getMinTileSize() {
+        return minTileSize;
+    }
+
+    public long getUsedArea() {
+        return usedArea;
+    }
+
+    // Fraction of the atlas texels in allocated tiles
+    public double getOccupancy() {
+        return (double) usedArea / ((long) atlasSize * atlasSize);
+    }
+
+    // Size of the largest tile that can currently be allocated, 0 if the atlas is full
+    public int getLargestFreeSize() {
+        for (int level = 0; level < levels; level++) {
+            for (int i = 0; i < freeCount[level]; i++) {
+                if (state[freeNodes[level][i]] == FREE) {
+                    return atlasSize >> level;
+                }
+            }
+        }
+        return 0;
+    }
+
+    int getLevel(int size) {
+        return Integer.numberOfTrailingZeros(atlasSize / size);
+    }
+
+    private Tile newTile(int node, int level) {
+        // The path from the root gives the position, child i covers quadrant (i & 1, i >> 1) of its parent
+        int x = 0;
+        int y = 0;
+        int size = atlasSize >> level;
+        for (int n = node, s = size; n > 0; n = (n - 1) / 4, s *= 2) {
+            int quadrant = (n - 1) % 4;
+            x += (quadrant & 1) * s;
+            y += (quadrant >> 1) * s;
+        }
+        return new Tile(node, x, y, size);
+    }
+
+    private void pushFree(int level, int node) {
+        if (freeCount[level] == freeNodes[level].length) {
+            compactFree(level);
+        }
+        if (freeCount[level] == freeNodes[level].length) {
+            freeNodes[level] = Arrays.copyOf(freeNodes[level], freeNodes[level].length * 2);
+        }
+        freeNodes[level][freeCount[level]++] = node;
+    }
+
+    // Drops the entries of nodes that are no longer free and duplicates of the same node
+    private void compactFree(int level) {
+        int[] nodes = freeNodes[level];
+        int count = 0;
+        for (int i = 0; i < freeCount[level]; i++) {
+            if (state[nodes[i]] == FREE) {
+                state[nodes[i]] = SPLIT;
+                nodes[count++] = nodes[i];
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            state[nodes[i]] = FREE;
+        }
+        freeCount[level] = count;
+    }
+
+    private int popFree(int level) {
+        while (freeCount[level] > 0) {
+            int node = freeNodes[level][--freeCount[level]];
+            if (state[node] == FREE) {
+                return node;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,83 @@
+package boot;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.util.List;
+
+import static boot.Main.*;
+
+// Replays the default benchmark camera path with moving lights and a door that opens and closes in the middle
+// of the scene, and reports the CPU cost of the shadow atlas update, how many shadow views were rendered and
+// how full the atlas is.
+// Usage: ShadowAtlasBenchmark [lightCount] [viewBudget] [movingLights] [atlasSize]
+public class ShadowAtlasBenchmark {
+    static final int MIN_TILE_SIZE = 32;
+    static final int MAX_TILE_SIZE = 512;
+    static final float TIMESTEP = 1.0f / 60.0f;
+    static final int WARMUP_FRAMES = 10;
+
+    public static void main(String[] args) {
+        int lightCount = args.length > 0 ? Integer.parseInt(args[0]) : NUM_LIGHTS;
+        int viewBudget = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        float movingLights = args.length > 2 ? Float.parseFloat(args[2]) : 0.05f;
+        int atlasSize = args.length > 3 ? Integer.parseInt(args[3]) : 8192;
+
+        ShadowAtlas atlas = new ShadowAtlas(atlasSize, MIN_TILE_SIZE, MAX_TILE_SIZE, viewBudget);
+        List<PointLight> lights = RandomLights(lightCount, LIGHT_RADIUS, 1);
+        List<PointLight> moving = lights.subList(0, Math.round(lights.size() * movingLights));
+        CameraPath path = BenchmarkRunner.defaultPath(true);
+        Camera camera = new Camera(new Vector3f(), new Vector3f(0.0f, 1.0f, 0.0f));
+        Matrix4f projection = new Matrix4f().perspective((float) Math.toRadians(camera.zoom),
+                SCREEN_SIZE.x / SCREEN_SIZE.y, NEAR_PLANE, FAR_PLANE);
+        Vector3f doorMin = new Vector3f(-5.0f, 0.0f, -10.0f);
+        Vector3f doorMax = new Vector3f(5.0f, 20.0f, 10.0f);
+
+        FrameStatistics statistics = new FrameStatistics();
+        long views = 0;
+        long pendingViews = 0;
+        long allocations = 0;
+        long evictions = 0;
+        long shadowedLights = 0;
+        double occupancy = 0.0;
+        double density = 0.0;
+        int frames = (int) Math.ceil(path.getDuration() / TIMESTEP) + 1;
+        for (int frame = -WARMUP_FRAMES; frame < frames; frame++) {
+            float time = Math.max(0, frame) * TIMESTEP;
+            path.apply(time, camera);
+            UpdateLights(moving);
+            // The door swings for one second out of every four
+            if (time % 4.0f < 1.0f) {
+                atlas.addDynamicBounds(doorMin, doorMax);
+            }
+
+            long start = System.nanoTime();
+            List<ShadowAtlas.ShadowView> frameViews = atlas.update(camera.getViewMatrix(), projection,
+                    SCREEN_SIZE.y, lights);
+            long elapsed = System.nanoTime() - start;
+
+            if (frame >= 0) {
+                statistics.addFrame(elapsed);
+                views += frameViews.size();
+                pendingViews += atlas.getPendingViews();
+                allocations += atlas.getAllocations();
+                evictions += atlas.getEvictions();
+                shadowedLights += atlas.getShadowedLights();
+                occupancy += atlas.getAllocator().getOccupancy();
+                density += atlas.getDensity();
+            }
+        }
+
+        int frameCount = statistics.getFrameCount();
+        System.out.printf("%d lights, %d moving, %d views per frame, %dx%d atlas%n",
+                lightCount, moving.size(), viewBudget, atlasSize, atlasSize);
+        System.out.printf("update      mean %.3f ms, p95 %.3f ms, max %.3f ms%n", statistics.getMeanMilliseconds(),
+                statistics.getPercentileMilliseconds(95), statistics.getPercentileMilliseconds(100));
+        System.out.printf("views       %.1f rendered, %.1f pending per frame%n",
+                (double) views / frameCount, (double) pendingViews / frameCount);
+        System.out.printf("atlas       %.1f shadowed lights, %.1f%% occupied, %.3f texels per pixel%n",
+                (double) shadowedLights / frameCount, occupancy / frameCount * 100.0, density / frameCount);
+        System.out.printf("allocations %.2f per frame, %.2f evictions per frame%n",
+                (double) allocations / frameCount, (double) evictions / frameCount);
+    }
+}
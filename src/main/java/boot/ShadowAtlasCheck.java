@@ -0,0 +1,276 @@
+package boot;
+
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.joml.Random;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static boot.Main.*;
+
+// Randomized checks of the shadow atlas without a GL context:
+//   allocator   random allocations and frees never hand out overlapping or misaligned tiles, and freeing every
+//               tile merges the quadtree back into one free atlas sized tile
+//   budget      no update returns more views than the budget, views only use their light's tiles, lights never
+//               share texels, and a still scene gets every visible light a complete shadow map
+//   caching     once a still scene is rendered nothing is rendered again, moved lights and lights reaching into
+//               invalidated or dynamic bounds render all their faces while the other lights stay cached
+// Exits with 1 on the first failure, so it can fail a build.
+// Usage: ShadowAtlasCheck [trials] [seed]
+public class ShadowAtlasCheck {
+    static final float SCREEN_HEIGHT = 1080.0f;
+
+    public static void main(String[] args) {
+        int trials = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+
+        long operations = 0;
+        long frames = 0;
+        for (int trial = 0; trial < trials; trial++) {
+            try {
+                operations += checkAllocator(new Random(seed + trial));
+                frames += checkBudget(new Random(seed + trial));
+                frames += checkCaching(new Random(seed + trial));
+            } catch (IllegalStateException e) {
+                System.err.printf("Trial %d (seed %d): %s%n", trial, seed + trial, e.getMessage());
+                System.exit(1);
+            }
+        }
+        System.out.printf("%d trials, %d allocator operations and %d atlas updates passed%n", trials, operations, frames);
+    }
+
+    // Returns the number of allocations and frees
+    static int checkAllocator(Random rand) {
+        int atlasSize = 1024;
+        int minTileSize = 16;
+        ShadowAtlasAllocator allocator = new ShadowAtlasAllocator(atlasSize, minTileSize);
+        List<ShadowAtlasAllocator.Tile> tiles = new ArrayList<>();
+        int levels = allocator.levels;
+        int operations = 0;
+        for (int i = 0; i < 2000; i++) {
+            if (tiles.isEmpty() || rand.nextFloat() < 0.6f) {
+                // Mostly small tiles so the atlas fills up and allocations start to fail
+                int size = atlasSize >> Math.min(levels - 1, 2 + rand.nextInt(levels - 2));
+                ShadowAtlasAllocator.Tile tile = allocator.allocate(size);
+                if (tile != null) {
+                    if (tile.size != size || tile.x % size != 0 || tile.y % size != 0
+                            || tile.x + size > atlasSize || tile.y + size > atlasSize) {
+                        throw new IllegalStateException("Allocator returned an invalid tile " + tile + " for size " + size);
+                    }
+                    tiles.add(tile);
+                } else if (allocator.getLargestFreeSize() >= size) {
+                    throw new IllegalStateException("Allocation of " + size + " failed with a free tile of "
+                            + allocator.getLargestFreeSize());
+                }
+            } else {
+                allocator.free(tiles.remove(rand.nextInt(tiles.size())));
+            }
+            operations++;
+            checkDisjoint(tiles, atlasSize, minTileSize, "allocator");
+            long area = 0;
+            for (ShadowAtlasAllocator.Tile tile : tiles) {
+                area += (long) tile.size * tile.size;
+            }
+            if (area != allocator.getUsedArea()) {
+                throw new IllegalStateException("Used area " + allocator.getUsedArea() + " differs from " + area);
+            }
+        }
+
+        while (!tiles.isEmpty()) {
+            allocator.free(tiles.remove(rand.nextInt(tiles.size())));
+            operations++;
+        }
+        if (allocator.getUsedArea() != 0 || allocator.getLargestFreeSize() != atlasSize
+                || allocator.state[0] != ShadowAtlasAllocator.FREE) {
+            throw new IllegalStateException("Freeing every tile did not merge back into one free atlas");
+        }
+        return operations;
+    }
+
+    // Returns the number of updates
+    static int checkBudget(Random rand) {
+        int budget = 1 + rand.nextInt(48);
+        ShadowAtlas atlas = new ShadowAtlas(2048 << rand.nextInt(3), 32, 512, budget);
+        List<PointLight> lights = RandomLights(64 + rand.nextInt(512), 5.0f + rand.nextFloat() * 40.0f,
+                rand.nextInt(1 << 20));
+        Matrix4f projection = projection();
+        Matrix4f view = randomView(rand);
+
+        int frames = 0;
+        // Moving camera and lights, with the atlas under pressure most of the time
+        for (; frames < 30; frames++) {
+            if (rand.nextFloat() < 0.3f) {
+                view = randomView(rand);
+            }
+            UpdateLights(lights.subList(0, rand.nextInt(lights.size())));
+            List<ShadowAtlas.ShadowView> views = atlas.update(view, projection, SCREEN_HEIGHT, lights);
+            checkViews(atlas, views, budget, lights.size());
+        }
+
+        // A still scene renders every pending face within the budget
+        int pendingFaces = 0;
+        for (int light = 0; light < lights.size(); light++) {
+            ShadowAtlasAllocator.Tile[] tiles = atlas.getTiles(light);
+            pendingFaces += tiles != null ? tiles.length : 0;
+        }
+        int limit = frames + pendingFaces / budget + 4;
+        while (atlas.update(view, projection, SCREEN_HEIGHT, lights).size() > 0) {
+            checkViews(atlas, atlas.getViews(), budget, lights.size());
+            if (++frames > limit) {
+                throw new IllegalStateException("A still scene still renders shadow views after " + frames + " frames");
+            }
+        }
+        FrustumIntersection frustum = new FrustumIntersection(new Matrix4f(projection).mul(view));
+        for (int light = 0; light < lights.size(); light++) {
+            Vector4f position = lights.get(light).position;
+            boolean visible = frustum.testSphere(position.x, position.y, position.z, lights.get(light).paddingAndRadius.w);
+            if (visible && atlas.getTiles(light) != null && !atlas.isReady(light)) {
+                throw new IllegalStateException("Visible light " + light + " has no complete shadow map in a still scene");
+            }
+        }
+        return frames;
+    }
+
+    // Returns the number of updates
+    static int checkCaching(Random rand) {
+        // Few enough lights that they all get their full size, so sizes only change when a light moves
+        ShadowAtlas atlas = new ShadowAtlas(8192, 32, 512, 1000);
+        Matrix4f projection = projection();
+        Matrix4f view = new Matrix4f().lookAt(-200.0f, 10.0f, 0.0f, 0.0f, 10.0f, 0.0f, 0.0f, 1.0f, 0.0f);
+        List<PointLight> lights = new ArrayList<>();
+        int count = 4 + rand.nextInt(13);
+        for (int i = 0; i < count; i++) {
+            PointLight light = new PointLight();
+            light.color = new Vector4f(1.0f);
+            light.position = new Vector4f(-40.0f + rand.nextFloat() * 80.0f, rand.nextFloat() * 40.0f - 10.0f,
+                    rand.nextFloat() * 60.0f - 30.0f, 1.0f);
+            light.paddingAndRadius = new Vector4f(0.0f, 0.0f, 0.0f, 5.0f + rand.nextFloat() * 20.0f);
+            lights.add(light);
+        }
+
+        int frames = 2;
+        atlas.update(view, projection, SCREEN_HEIGHT, lights);
+        if (!atlas.update(view, projection, SCREEN_HEIGHT, lights).isEmpty()) {
+            throw new IllegalStateException("Shadow maps of a still scene were rendered again");
+        }
+
+        for (int step = 0; step < 10; step++, frames++) {
+            Set<Integer> expected = new HashSet<>();
+            int change = rand.nextInt(3);
+            if (change == 0) {
+                // Move a few lights by less than their radius so their tile size stays about the same
+                for (int i = 0; i < 1 + rand.nextInt(3); i++) {
+                    int light = rand.nextInt(lights.size());
+                    lights.get(light).position.add(rand.nextFloat() - 0.5f, rand.nextFloat() - 0.5f, 0.0f, 0.0f);
+                    expected.add(light);
+                }
+            } else {
+                Vector3f center = new Vector3f(-40.0f + rand.nextFloat() * 80.0f, rand.nextFloat() * 40.0f - 10.0f,
+                        rand.nextFloat() * 60.0f - 30.0f);
+                Vector3f min = new Vector3f(center).sub(2.0f, 2.0f, 2.0f);
+                Vector3f max = new Vector3f(center).add(2.0f, 2.0f, 2.0f);
+                if (change == 1) {
+                    atlas.invalidate(min, max);
+                } else {
+                    atlas.addDynamicBounds(min, max);
+                }
+                for (int light = 0; light < lights.size(); light++) {
+                    Vector4f position = lights.get(light).position;
+                    float radius = lights.get(light).paddingAndRadius.w;
+                    float dx = Math.max(min.x - position.x, Math.max(0.0f, position.x - max.x));
+                    float dy = Math.max(min.y - position.y, Math.max(0.0f, position.y - max.y));
+                    float dz = Math.max(min.z - position.z, Math.max(0.0f, position.z - max.z));
+                    if (dx * dx + dy * dy + dz * dz <= radius * radius) {
+                        expected.add(light);
+                    }
+                }
+            }
+
+            List<ShadowAtlas.ShadowView> views = atlas.update(view, projection, SCREEN_HEIGHT, lights);
+            checkViews(atlas, views, 1000, lights.size());
+            Set<Integer> rendered = new HashSet<>();
+            for (ShadowAtlas.ShadowView shadowView : views) {
+                rendered.add(shadowView.light);
+            }
+            for (int light : expected) {
+                if (atlas.getTiles(light) != null
+                        && countFaces(views, light) != atlas.getProjection(light).getFaces()) {
+                    throw new IllegalStateException("Changed light " + light + " did not render all of its faces");
+                }
+            }
+            rendered.removeAll(expected);
+            if (!rendered.isEmpty()) {
+                throw new IllegalStateException("Unchanged lights " + rendered + " were rendered again");
+            }
+        }
+        return frames;
+    }
+
+    static void checkViews(ShadowAtlas atlas, List<ShadowAtlas.ShadowView> views, int budget, int lightCount) {
+        if (views.size() > budget) {
+            throw new IllegalStateException(views.size() + " shadow views exceed the budget of " + budget);
+        }
+        Set<Long> faces = new HashSet<>();
+        for (ShadowAtlas.ShadowView view : views) {
+            ShadowAtlasAllocator.Tile[] tiles = atlas.getTiles(view.light);
+            if (tiles == null || tiles[view.face] != view.tile || atlas.getProjection(view.light) != view.projection) {
+                throw new IllegalStateException("Shadow view of light " + view.light + " face " + view.face
+                        + " does not use the light's tile");
+            }
+            if (!faces.add((long) view.light * 8 + view.face)) {
+                throw new IllegalStateException("Face " + view.face + " of light " + view.light + " rendered twice");
+            }
+        }
+
+        List<ShadowAtlasAllocator.Tile> held = new ArrayList<>();
+        for (int light = 0; light < lightCount; light++) {
+            ShadowAtlasAllocator.Tile[] tiles = atlas.getTiles(light);
+            if (tiles != null) {
+                held.addAll(List.of(tiles));
+            }
+        }
+        ShadowAtlasAllocator allocator = atlas.getAllocator();
+        checkDisjoint(held, allocator.getAtlasSize(), allocator.getMinTileSize(), "atlas");
+    }
+
+    static void checkDisjoint(List<ShadowAtlasAllocator.Tile> tiles, int atlasSize, int minTileSize, String what) {
+        int cells = atlasSize / minTileSize;
+        boolean[] covered = new boolean[cells * cells];
+        for (ShadowAtlasAllocator.Tile tile : tiles) {
+            for (int y = tile.y / minTileSize; y < (tile.y + tile.size) / minTileSize; y++) {
+                for (int x = tile.x / minTileSize; x < (tile.x + tile.size) / minTileSize; x++) {
+                    if (covered[y * cells + x]) {
+                        throw new IllegalStateException("Tile " + tile + " overlaps another tile in the " + what);
+                    }
+                    covered[y * cells + x] = true;
+                }
+            }
+        }
+    }
+
+    static int countFaces(List<ShadowAtlas.ShadowView> views, int light) {
+        int count = 0;
+        for (ShadowAtlas.ShadowView view : views) {
+            if (view.light == light) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    static Matrix4f projection() {
+        return new Matrix4f().perspective((float) Math.toRadians(Camera.ZOOM), SCREEN_SIZE.x / SCREEN_SIZE.y,
+                NEAR_PLANE, FAR_PLANE);
+    }
+
+    static Matrix4f randomView(Random rand) {
+        Vector3f eye = new Vector3f(rand.nextFloat() * 200.0f - 100.0f, rand.nextFloat() * 60.0f,
+                rand.nextFloat() * 100.0f - 50.0f);
+        return new Matrix4f().lookAt(eye, new Vector3f(0.0f, 20.0f, 0.0f), new Vector3f(0.0f, 1.0f, 0.0f));
+    }
+}
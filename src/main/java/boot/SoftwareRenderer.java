@@ -0,0 +1,524 @@
+package boot;
+
+import org.joml.Matrix3f;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+// CPU reference implementation of the forward+ pipeline: depth pre-pass, tiled light culling,
+// light_accumulation.frag.glsl and hdr.frag.glsl. Used to regression test the GPU path without a GPU.
+// Every tile runs all three stages on its own, so tiles are rendered in parallel on the given pool.
+// Pixels follow the GL conventions: window origin at the bottom left and tile y counted from the bottom
+public class SoftwareRenderer {
+    // Layout of a transformed vertex. Starts as clip space and is replaced by window coordinates after clipping.
+    // The rest are the outputs of light_accumulation.vert.glsl, TBN stored row by row
+    static final int POSITION = 0;
+    static final int FRAGMENT_POSITION = 4;
+    static final int TEXTURE_COORDINATES = 7;
+    static final int TBN = 9;
+    static final int TANGENT_VIEW_POSITION = 18;
+    static final int TANGENT_FRAGMENT_POSITION = 21;
+    static final int STRIDE = 24;
+
+    static final int TRIANGLES_PER_BATCH = 4096;
+
+    final int width;
+    final int height;
+    final LightCulling culling;
+    final ForkJoinPool pool;
+
+    // Window space depth, cleared to 1
+    final float[] depth;
+    // HDR color, rgb per pixel
+    final float[] color;
+    final int[] tileTriangleCounts;
+    long[][] tileTriangles;
+
+    // Triangles after clipping and face culling, three vertices of STRIDE floats each
+    static class Batch {
+        final CpuMesh mesh;
+        float[] vertices = new float[TRIANGLES_PER_BATCH * 3 * STRIDE];
+        // Bounding box in pixels per triangle: min x, min y, max x, max y
+        int[] bounds = new int[TRIANGLES_PER_BATCH * 4];
+        int count;
+
+        Batch(CpuMesh mesh) {
+            this.mesh = mesh;
+        }
+
+        void grow() {
+            vertices = Arrays.copyOf(vertices, vertices.length * 2);
+            bounds = Arrays.copyOf(bounds, bounds.length * 2);
+        }
+    }
+
+    public SoftwareRenderer(int width, int height, int tileSize, ForkJoinPool pool) {
+        this.width = width;
+        this.height = height;
+        this.pool = pool;
+        culling = new LightCulling(width, height, tileSize);
+        depth = new float[width * height];
+        color = new float[width * height * 3];
+        tileTriangleCounts = new int[culling.getNumberOfTiles()];
+        tileTriangles = new long[culling.getNumberOfTiles()][64];
+    }
+
+    public LightCulling getCulling() {
+        return culling;
+    }
+
+    public BufferedImage render(List<CpuMesh> meshes, Matrix4f model, Matrix4f view, Matrix4f projection,
+                                Vector3f viewPosition, List<Main.PointLight> pointLights,
+                                List<Main.SpotLight> spotLights, float exposure) {
+        culling.setView(view, projection);
+
+        List<Batch> batches = transform(meshes, model, view, projection, viewPosition);
+        bin(batches);
+
+        parallelFor(culling.getNumberOfTiles(), tile -> renderTile(tile, batches, projection, pointLights, spotLights));
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        parallelFor(height, y -> tonemapRow(y, exposure, image));
+        return image;
+    }
+
+    // Runs body for 0 until count on the renderer's pool
+    void parallelFor(int count, IntConsumer body) {
+        pool.submit(() -> IntStream.range(0, count).parallel().forEach(body)).join();
+    }
+
+    // Vertex stage. Every batch of triangles is transformed, clipped against the near and far planes,
+    // face culled and converted to window coordinates independently
+    private List<Batch> transform(List<CpuMesh> meshes, Matrix4f model, Matrix4f view, Matrix4f projection,
+                                  Vector3f viewPosition) {
+        Matrix4f modelViewProjection = new Matrix4f(projection).mul(view).mul(model);
+        Matrix3f normalMatrix = new Matrix3f();
+        model.get3x3(normalMatrix).invert().transpose();
+
+        List<int[]> ranges = new ArrayList<>();
+        for (int i = 0; i < meshes.size(); i++) {
+            int triangleCount = meshes.get(i).getTriangleCount();
+            for (int start = 0; start < triangleCount; start += TRIANGLES_PER_BATCH) {
+                ranges.add(new int[]{i, start, Math.min(triangleCount, start + TRIANGLES_PER_BATCH)});
+            }
+        }
+
+        Batch[] batches = new Batch[ranges.size()];
+        parallelFor(ranges.size(), r -> {
+            int[] range = ranges.get(r);
+            CpuMesh mesh = meshes.get(range[0]);
+            Batch batch = new Batch(mesh);
+            float[] triangle = new float[3 * STRIDE];
+            float[] clipped = new float[5 * STRIDE];
+            float[] scratch = new float[5 * STRIDE];
+            for (int t = range[1]; t < range[2]; t++) {
+                for (int v = 0; v < 3; v++) {
+                    transformVertex(mesh, mesh.indices[t * 3 + v], modelViewProjection, model, normalMatrix,
+                            viewPosition, triangle, v * STRIDE);
+                }
+                int vertexCount = clip(triangle, clipped, scratch);
+                // Fan out the clipped polygon
+                for (int v = 1; v + 1 < vertexCount; v++) {
+                    emit(batch, clipped, 0, v, v + 1);
+                }
+            }
+            batches[r] = batch;
+        });
+        return Arrays.asList(batches);
+    }
+
+    // light_accumulation.vert.glsl
+    private static void transformVertex(CpuMesh mesh, int index, Matrix4f modelViewProjection, Matrix4f model,
+                                        Matrix3f normalMatrix, Vector3f viewPosition, float[] out, int offset) {
+        Vector4f position = new Vector4f(mesh.positions[index * 3], mesh.positions[index * 3 + 1],
+                mesh.positions[index * 3 + 2], 1.0f);
+        Vector4f clip = modelViewProjection.transform(position, new Vector4f());
+        Vector4f fragmentPosition = model.transform(position);
+
+        Vector3f tan = normalMatrix.transform(read3(mesh.tangents, index)).normalize();
+        Vector3f bitan = normalMatrix.transform(read3(mesh.bitangents, index)).normalize();
+        Vector3f norm = normalMatrix.transform(read3(mesh.normals, index)).normalize();
+
+        out[offset + POSITION] = clip.x;
+        out[offset + POSITION + 1] = clip.y;
+        out[offset + POSITION + 2] = clip.z;
+        out[offset + POSITION + 3] = clip.w;
+        out[offset + FRAGMENT_POSITION] = fragmentPosition.x;
+        out[offset + FRAGMENT_POSITION + 1] = fragmentPosition.y;
+        out[offset + FRAGMENT_POSITION + 2] = fragmentPosition.z;
+        out[offset + TEXTURE_COORDINATES] = mesh.textureCoordinates[index * 2];
+        out[offset + TEXTURE_COORDINATES + 1] = mesh.textureCoordinates[index * 2 + 1];
+
+        // TBN = transpose(mat3(tan, bitan, norm)), so its rows are tan, bitan and norm
+        write3(out, offset + TBN, tan);
+        write3(out, offset + TBN + 3, bitan);
+        write3(out, offset + TBN + 6, norm);
+        out[offset + TANGENT_VIEW_POSITION] = tan.dot(viewPosition);
+        out[offset + TANGENT_VIEW_POSITION + 1] = bitan.dot(viewPosition);
+        out[offset + TANGENT_VIEW_POSITION + 2] = norm.dot(viewPosition);
+        Vector3f worldPosition = new Vector3f(fragmentPosition.x, fragmentPosition.y, fragmentPosition.z);
+        out[offset + TANGENT_FRAGMENT_POSITION] = tan.dot(worldPosition);
+        out[offset + TANGENT_FRAGMENT_POSITION + 1] = bitan.dot(worldPosition);
+        out[offset + TANGENT_FRAGMENT_POSITION + 2] = norm.dot(worldPosition);
+    }
+
+    // Clips a triangle against the near (z >= -w) and far (z <= w) planes. Returns the polygon's vertex count
+    private static int clip(float[] triangle, float[] out, float[] scratch) {
+        int count = clipPlane(triangle, 3, scratch, 1.0f);
+        return clipPlane(scratch, count, out, -1.0f);
+    }
+
+    // Sutherland-Hodgman against the plane w + sign * z >= 0
+    private static int clipPlane(float[] in, int count, float[] out, float sign) {
+        int outCount = 0;
+        for (int i = 0; i < count; i++) {
+            int a = i * STRIDE;
+            int b = ((i + 1) % count) * STRIDE;
+            float da = in[a + 3] + sign * in[a + 2];
+            float db = in[b + 3] + sign * in[b + 2];
+            if (da >= 0.0f) {
+                System.arraycopy(in, a, out, outCount++ * STRIDE, STRIDE);
+            }
+            if ((da >= 0.0f) != (db >= 0.0f)) {
+                float t = da / (da - db);
+                int o = outCount++ * STRIDE;
+                for (int k = 0; k < STRIDE; k++) {
+                    out[o + k] = in[a + k] + (in[b + k] - in[a + k]) * t;
+                }
+            }
+        }
+        return outCount;
+    }
+
+    // Converts a clipped triangle to window coordinates and adds it to the batch unless it is back facing or off screen
+    private void emit(Batch batch, float[] polygon, int i0, int i1, int i2) {
+        if (batch.count * 3 * STRIDE == batch.vertices.length) {
+            batch.grow();
+        }
+        int base = batch.count * 3 * STRIDE;
+        int[] corners = {i0, i1, i2};
+        for (int v = 0; v < 3; v++) {
+            int src = corners[v] * STRIDE;
+            int dst = base + v * STRIDE;
+            System.arraycopy(polygon, src, batch.vertices, dst, STRIDE);
+            float inverseW = 1.0f / polygon[src + 3];
+            batch.vertices[dst] = (polygon[src] * inverseW * 0.5f + 0.5f) * width;
+            batch.vertices[dst + 1] = (polygon[src + 1] * inverseW * 0.5f + 0.5f) * height;
+            batch.vertices[dst + 2] = polygon[src + 2] * inverseW * 0.5f + 0.5f;
+            batch.vertices[dst + 3] = inverseW;
+        }
+
+        float[] vs = batch.vertices;
+        float x0 = vs[base], y0 = vs[base + 1];
+        float x1 = vs[base + STRIDE], y1 = vs[base + STRIDE + 1];
+        float x2 = vs[base + 2 * STRIDE], y2 = vs[base + 2 * STRIDE + 1];
+
+        // GL_CULL_FACE with counter clockwise front faces
+        float area = (x1 - x0) * (y2 - y0) - (x2 - x0) * (y1 - y0);
+        if (!(area > 0.0f)) {
+            return;
+        }
+
+        int minX = Math.max(0, (int) Math.floor(Math.min(x0, Math.min(x1, x2))));
+        int minY = Math.max(0, (int) Math.floor(Math.min(y0, Math.min(y1, y2))));
+        int maxX = Math.min(width - 1, (int) Math.ceil(Math.max(x0, Math.max(x1, x2))));
+        int maxY = Math.min(height - 1, (int) Math.ceil(Math.max(y0, Math.max(y1, y2))));
+        if (minX > maxX || minY > maxY) {
+            return;
+        }
+
+        int b = batch.count * 4;
+        batch.bounds[b] = minX;
+        batch.bounds[b + 1] = minY;
+        batch.bounds[b + 2] = maxX;
+        batch.bounds[b + 3] = maxY;
+        batch.count++;
+    }
+
+    // Assigns triangles to the tiles their bounding box overlaps. Each row of tiles is binned in parallel.
+    // Entries are encoded as batch index in the high and triangle index in the low 32 bits
+    private void bin(List<Batch> batches) {
+        int tileSize = culling.getTileSize();
+        int tilesX = culling.getTilesX();
+        Arrays.fill(tileTriangleCounts, 0);
+
+        parallelFor(culling.getTilesY(), tileY -> {
+            int rowMin = tileY * tileSize;
+            int rowMax = rowMin + tileSize - 1;
+            for (int b = 0; b < batches.size(); b++) {
+                Batch batch = batches.get(b);
+                for (int t = 0; t < batch.count; t++) {
+                    int[] bounds = batch.bounds;
+                    if (bounds[t * 4 + 1] > rowMax || bounds[t * 4 + 3] < rowMin) {
+                        continue;
+                    }
+                    int firstTile = bounds[t * 4] / tileSize;
+                    int lastTile = bounds[t * 4 + 2] / tileSize;
+                    for (int tileX = firstTile; tileX <= lastTile; tileX++) {
+                        int tile = tileY * tilesX + tileX;
+                        if (tileTriangleCounts[tile] == tileTriangles[tile].length) {
+                            tileTriangles[tile] = Arrays.copyOf(tileTriangles[tile], tileTriangles[tile].length * 2);
+                        }
+                        tileTriangles[tile][tileTriangleCounts[tile]++] = ((long) b << 32) | t;
+                    }
+                }
+            }
+        });
+    }
+
+    // Depth pre-pass, light culling and light accumulation of a single tile
+    private void renderTile(int tile, List<Batch> batches, Matrix4f projection,
+                            List<Main.PointLight> pointLights, List<Main.SpotLight> spotLights) {
+        int tileSize = culling.getTileSize();
+        int x0 = (tile % culling.getTilesX()) * tileSize;
+        int y0 = (tile / culling.getTilesX()) * tileSize;
+        int x1 = Math.min(width, x0 + tileSize);
+        int y1 = Math.min(height, y0 + tileSize);
+
+        for (int y = y0; y < y1; y++) {
+            Arrays.fill(depth, y * width + x0, y * width + x1, 1.0f);
+            Arrays.fill(color, (y * width + x0) * 3, (y * width + x1) * 3, 0.0f);
+        }
+
+        // Depth pre-pass
+        for (int i = 0; i < tileTriangleCounts[tile]; i++) {
+            long entry = tileTriangles[tile][i];
+            rasterize(batches.get((int) (entry >>> 32)), (int) entry, x0, y0, x1, y1, null);
+        }
+
+        // Linear depth bounds of the tile, linearized the same way as light_culling.comp.glsl
+        float minDepth = Float.MAX_VALUE;
+        float maxDepth = 0.0f;
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++) {
+                float d = (0.5f * projection.m32()) / (depth[y * width + x] + 0.5f * projection.m22() - 0.5f);
+                minDepth = Math.min(minDepth, d);
+                maxDepth = Math.max(maxDepth, d);
+            }
+        }
+        culling.cullTile(tile, minDepth, maxDepth, pointLights, spotLights, false, LightCulling.newDepthPlanes());
+
+        // Light accumulation
+        Shading shading = new Shading(tile, pointLights, spotLights);
+        for (int i = 0; i < tileTriangleCounts[tile]; i++) {
+            long entry = tileTriangles[tile][i];
+            rasterize(batches.get((int) (entry >>> 32)), (int) entry, x0, y0, x1, y1, shading);
+        }
+    }
+
+    // Rasterizes a triangle inside the tile's pixel rectangle. Without shading this is the depth pre-pass (GL_LESS),
+    // with shading only fragments matching the pre-pass depth are shaded (GL_LEQUAL)
+    private void rasterize(Batch batch, int triangle, int tileX0, int tileY0, int tileX1, int tileY1, Shading shading) {
+        float[] vs = batch.vertices;
+        int a = triangle * 3 * STRIDE;
+        int b = a + STRIDE;
+        int c = b + STRIDE;
+        float ax = vs[a], ay = vs[a + 1];
+        float bx = vs[b], by = vs[b + 1];
+        float cx = vs[c], cy = vs[c + 1];
+        float area = (bx - ax) * (cy - ay) - (cx - ax) * (by - ay);
+
+        int[] bounds = batch.bounds;
+        int minX = Math.max(tileX0, bounds[triangle * 4]);
+        int minY = Math.max(tileY0, bounds[triangle * 4 + 1]);
+        int maxX = Math.min(tileX1 - 1, bounds[triangle * 4 + 2]);
+        int maxY = Math.min(tileY1 - 1, bounds[triangle * 4 + 3]);
+
+        for (int y = minY; y <= maxY; y++) {
+            float py = y + 0.5f;
+            for (int x = minX; x <= maxX; x++) {
+                float px = x + 0.5f;
+                float w0 = ((cx - bx) * (py - by) - (cy - by) * (px - bx)) / area;
+                float w1 = ((ax - cx) * (py - cy) - (ay - cy) * (px - cx)) / area;
+                float w2 = 1.0f - w0 - w1;
+                if (w0 < 0.0f || w1 < 0.0f || w2 < 0.0f) {
+                    continue;
+                }
+
+                float z = w0 * vs[a + 2] + w1 * vs[b + 2] + w2 * vs[c + 2];
+                int pixel = y * width + x;
+                if (shading == null) {
+                    if (z < depth[pixel]) {
+                        depth[pixel] = z;
+                    }
+                } else if (z <= depth[pixel]) {
+                    shading.shade(batch, a, b, c, w0, w1, w2, pixel);
+                }
+            }
+        }
+    }
+
+    // light_accumulation.frag.glsl for the fragments of one tile
+    private class Shading {
+        final int tile;
+        final List<Main.PointLight> pointLights;
+        final List<Main.SpotLight> spotLights;
+        final float[] varyings = new float[STRIDE];
+        final float[] baseDiffuse = new float[4];
+        final float[] baseSpecular = new float[4];
+        final float[] normal = new float[4];
+
+        Shading(int tile, List<Main.PointLight> pointLights, List<Main.SpotLight> spotLights) {
+            this.tile = tile;
+            this.pointLights = pointLights;
+            this.spotLights = spotLights;
+        }
+
+        void shade(Batch batch, int a, int b, int c, float w0, float w1, float w2, int pixel) {
+            // Perspective correct interpolation
+            float[] vs = batch.vertices;
+            float p0 = w0 * vs[a + 3];
+            float p1 = w1 * vs[b + 3];
+            float p2 = w2 * vs[c + 3];
+            float sum = p0 + p1 + p2;
+            p0 /= sum;
+            p1 /= sum;
+            p2 /= sum;
+            for (int k = FRAGMENT_POSITION; k < STRIDE; k++) {
+                varyings[k] = p0 * vs[a + k] + p1 * vs[b + k] + p2 * vs[c + k];
+            }
+
+            float u = varyings[TEXTURE_COORDINATES];
+            float v = varyings[TEXTURE_COORDINATES + 1];
+            sample(batch.mesh.diffuse, u, v, baseDiffuse);
+            sample(batch.mesh.specular, u, v, baseSpecular);
+            sample(batch.mesh.normal, u, v, normal);
+
+            // Use the mask to discard any fragments that are transparent
+            if (baseDiffuse[3] <= 0.2f) {
+                return;
+            }
+
+            Vector3f n = new Vector3f(normal[0] * 2.0f - 1.0f, normal[1] * 2.0f - 1.0f, normal[2] * 2.0f - 1.0f).normalize();
+            Vector3f fragmentPosition = new Vector3f(varyings[TANGENT_FRAGMENT_POSITION],
+                    varyings[TANGENT_FRAGMENT_POSITION + 1], varyings[TANGENT_FRAGMENT_POSITION + 2]);
+            Vector3f viewDirection = new Vector3f(varyings[TANGENT_VIEW_POSITION],
+                    varyings[TANGENT_VIEW_POSITION + 1], varyings[TANGENT_VIEW_POSITION + 2])
+                    .sub(fragmentPosition).normalize();
+
+            float r = 0.0f, g = 0.0f, bl = 0.0f;
+            Vector3f lightDirection = new Vector3f();
+            Vector3f halfway = new Vector3f();
+            int count = culling.getVisibleCount(tile);
+            for (int i = 0; i < count; i++) {
+                int lightIndex = culling.getVisibleIndex(tile, i);
+
+                // Indices past the point lights refer to spot lights
+                Vector4f lightColor;
+                Vector4f lightPosition;
+                float lightRadius;
+                Main.SpotLight spot = null;
+                if (lightIndex >= pointLights.size()) {
+                    spot = spotLights.get(lightIndex - pointLights.size());
+                    lightColor = spot.color;
+                    lightPosition = spot.positionAndRadius;
+                    lightRadius = spot.positionAndRadius.w;
+                } else {
+                    Main.PointLight light = pointLights.get(lightIndex);
+                    lightColor = light.color;
+                    lightPosition = light.position;
+                    lightRadius = light.paddingAndRadius.w;
+                }
+
+                // Calculate the light attenuation on the pre-normalized lightDirection
+                toTangentSpace(lightPosition.x, lightPosition.y, lightPosition.z, lightDirection).sub(fragmentPosition);
+                float attenuation = attenuate(lightDirection, lightRadius);
+
+                // Normalize the light direction and calculate the halfway vector
+                lightDirection.normalize();
+                if (spot != null) {
+                    Vector4f direction = spot.directionAndCosAngle;
+                    Vector3f spotDirection = toTangentSpace(direction.x, direction.y, direction.z, new Vector3f()).normalize();
+                    attenuation *= spotFalloff(lightDirection, spotDirection, direction.w);
+                }
+                halfway.set(lightDirection).add(viewDirection).normalize();
+
+                float diffuse = Math.max(lightDirection.dot(n), 0.0f);
+                float specular = (float) Math.pow(Math.max(n.dot(halfway), 0.0f), 32.0);
+                if (diffuse == 0.0f) {
+                    specular = 0.0f;
+                }
+
+                r += lightColor.x * (baseDiffuse[0] * diffuse + baseSpecular[0] * specular) * attenuation;
+                g += lightColor.y * (baseDiffuse[1] * diffuse + baseSpecular[1] * specular) * attenuation;
+                bl += lightColor.z * (baseDiffuse[2] * diffuse + baseSpecular[2] * specular) * attenuation;
+            }
+
+            color[pixel * 3] = r + baseDiffuse[0] * 0.08f;
+            color[pixel * 3 + 1] = g + baseDiffuse[1] * 0.08f;
+            color[pixel * 3 + 2] = bl + baseDiffuse[2] * 0.08f;
+        }
+
+        // TBN * vector with the interpolated TBN rows
+        Vector3f toTangentSpace(float x, float y, float z, Vector3f out) {
+            return out.set(
+                    varyings[TBN] * x + varyings[TBN + 1] * y + varyings[TBN + 2] * z,
+                    varyings[TBN + 3] * x + varyings[TBN + 4] * y + varyings[TBN + 5] * z,
+                    varyings[TBN + 6] * x + varyings[TBN + 7] * y + varyings[TBN + 8] * z);
+        }
+    }
+
+    private static void sample(CpuTexture texture, float u, float v, float[] out) {
+        if (texture == null) {
+            out[0] = out[1] = out[2] = 0.0f;
+            out[3] = 1.0f;
+        } else {
+            texture.sample(u, v, out);
+        }
+    }
+
+    // Attenuate the point light intensity, same as light_accumulation.frag.glsl
+    static float attenuate(Vector3f lightDirection, float radius) {
+        float cutoff = 0.5f;
+        float attenuation = lightDirection.dot(lightDirection) / (100.0f * radius);
+        attenuation = 1.0f / (attenuation * 15.0f + 1.0f);
+        attenuation = (attenuation - cutoff) / (1.0f - cutoff);
+
+        return Math.max(0.0f, Math.min(1.0f, attenuation));
+    }
+
+    // Fades the spot light out towards the edge of its cone, same as light_accumulation.frag.glsl
+    static float spotFalloff(Vector3f lightDirection, Vector3f spotDirection, float cosAngle) {
+        float cosTheta = -lightDirection.dot(spotDirection);
+        float edge1 = cosAngle + (1.0f - cosAngle) * 0.2f;
+        float t = Math.max(0.0f, Math.min(1.0f, (cosTheta - cosAngle) / (edge1 - cosAngle)));
+        return t * t * (3.0f - 2.0f * t);
+    }
+
+    // hdr.frag.glsl, Reinhard tonemapping with exposure followed by gamma correction.
+    // Image rows are flipped since the window origin is at the bottom left
+    private void tonemapRow(int y, float exposure, BufferedImage image) {
+        int[] row = new int[width];
+        for (int x = 0; x < width; x++) {
+            int pixel = (y * width + x) * 3;
+            int rgb = 0;
+            for (int c = 0; c < 3; c++) {
+                float result = 1.0f - (float) Math.exp(-color[pixel + c] * exposure);
+                result = (float) Math.pow(result, 1.0 / 2.2);
+                rgb = (rgb << 8) | Math.round(Math.max(0.0f, Math.min(1.0f, result)) * 255.0f);
+            }
+            row[x] = rgb;
+        }
+        synchronized (image) {
+            image.setRGB(0, height - 1 - y, width, 1, row, 0, width);
+        }
+    }
+
+    static Vector3f read3(float[] array, int index) {
+        return new Vector3f(array[index * 3], array[index * 3 + 1], array[index * 3 + 2]);
+    }
+
+    static void write3(float[] array, int offset, Vector3f vector) {
+        array[offset] = vector.x;
+        array[offset + 1] = vector.y;
+        array[offset + 2] = vector.z;
+    }
+}
@@ -0,0 +1,71 @@
+package boot;
+
+import org.joml.Matrix4f;
+import org.joml.Random;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static boot.Main.*;
+
+// Measures the per tile light list length when spot lights are culled with their cone
+// compared to culling them as spheres. Runs on the CPU with the same culling as the compute shader.
+// Usage: SpotCullingComparison [spotLightCount] [coneAngleDegrees]
+public class SpotCullingComparison {
+
+    public static void main(String[] args) {
+        int spotLightCount = args.length > 0 ? Integer.parseInt(args[0]) : NUM_SPOT_LIGHTS;
+        float angle = args.length > 1 ? Float.parseFloat(args[1]) : SPOT_LIGHT_ANGLE;
+
+        Random rand = new Random(7);
+        List<SpotLight> spotLights = new ArrayList<>();
+        for (int i = 0; i < spotLightCount; i++) {
+            SpotLight light = new SpotLight();
+            Vector3f position = new Vector3f();
+            for (int j = 0; j < 3; j++) {
+                float min = LIGHT_MIN_BOUNDS.get(j);
+                float max = LIGHT_MAX_BOUNDS.get(j);
+                position.setComponent(j, rand.nextFloat() * (max - min) + min);
+            }
+            // Mostly downward facing fixtures
+            Vector3f direction = new Vector3f(rand.nextFloat() - 0.5f, -2.0f, rand.nextFloat() - 0.5f).normalize();
+            light.color = new Vector4f(1.0f);
+            light.positionAndRadius = new Vector4f(position, SPOT_LIGHT_RADIUS);
+            light.directionAndCosAngle = new Vector4f(direction, (float) Math.cos(Math.toRadians(angle)));
+            spotLights.add(light);
+        }
+
+        Matrix4f projection = new Matrix4f().perspective((float) Math.toRadians(Camera.ZOOM),
+                SCREEN_SIZE.x / SCREEN_SIZE.y, NEAR_PLANE, FAR_PLANE);
+        Matrix4f view = new Matrix4f().lookAt(-40.0f, 10.0f, 0.0f, 0.0f, 10.0f, 0.0f, 0.0f, 1.0f, 0.0f);
+
+        LightCulling culling = new LightCulling((int) SCREEN_SIZE.x, (int) SCREEN_SIZE.y, 16);
+        culling.setView(view, projection);
+
+        // Without a depth buffer every tile spans the whole depth range
+        float[] minDepth = new float[culling.getNumberOfTiles()];
+        float[] maxDepth = new float[culling.getNumberOfTiles()];
+        Arrays.fill(minDepth, NEAR_PLANE);
+        Arrays.fill(maxDepth, FAR_PLANE);
+
+        List<PointLight> pointLights = new ArrayList<>();
+        culling.cull(minDepth, maxDepth, pointLights, spotLights, true);
+        report("spheres", culling);
+        culling.cull(minDepth, maxDepth, pointLights, spotLights, false);
+        report("cones", culling);
+    }
+
+    private static void report(String name, LightCulling culling) {
+        long total = 0;
+        int max = 0;
+        for (int tile = 0; tile < culling.getNumberOfTiles(); tile++) {
+            total += culling.getVisibleCount(tile);
+            max = Math.max(max, culling.getVisibleCount(tile));
+        }
+        System.out.printf("%-8s average lights per tile %.2f, max %d%n",
+                name, (double) total / culling.getNumberOfTiles(), max);
+    }
+}
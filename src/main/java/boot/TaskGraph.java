@@ -0,0 +1,201 @@
+package boot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Jobs with dependencies executed on a work stealing ForkJoinPool. A job is started as soon as the jobs it depends
+// on have finished. Pinned jobs run on the thread that calls execute instead, for work such as GL calls that has to
+// stay on the context thread, and that thread only runs pinned jobs while it waits for the graph to finish.
+// The graph is declared once and executed every frame, the job bodies read the frame's state themselves.
+// Every job records when and on which thread it ran, so frames can be profiled
+public class TaskGraph {
+
+    // Work on the items from first to last, exclusive
+    public interface RangeBody {
+        void run(int first, int last);
+    }
+
+    public static class Job {
+        final String name;
+        // Name of the parallel for a range job belongs to, otherwise the job's name
+        final String group;
+        final Runnable body;
+        final boolean pinned;
+        final List<Job> dependents = new ArrayList<>();
+        int dependencies;
+        final AtomicInteger remaining = new AtomicInteger();
+
+        // Times of the last execution relative to its start, in nanoseconds
+        long startTime;
+        long endTime;
+        String thread;
+
+        Job(String name, String group, Runnable body, boolean pinned) {
+            this.name = name;
+            this.group = group;
+            this.body = body;
+            this.pinned = pinned;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getGroup() {
+            return group;
+        }
+
+        public boolean isPinned() {
+            return pinned;
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+
+        public long getEndTime() {
+            return endTime;
+        }
+
+        public long getDuration() {
+            return endTime - startTime;
+        }
+
+        public String getThread() {
+            return thread;
+        }
+    }
+
+    // Put in the pinned queue once every job has finished
+    private static final Job DONE = new Job("done", "done", null, true);
+
+    final ForkJoinPool pool;
+    final List<Job> jobs = new ArrayList<>();
+
+    private final LinkedBlockingQueue<Job> pinnedJobs = new LinkedBlockingQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicReference<Throwable> error = new AtomicReference<>();
+    private long graphStart;
+    private long graphDuration;
+
+    public TaskGraph(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    // Dependencies must have been added to this graph before, so the graph cannot have cycles
+    public Job add(String name, Runnable body, Job... dependencies) {
+        return add(new Job(name, name, body, false), dependencies);
+    }
+
+    public Job addPinned(String name, Runnable body, Job... dependencies) {
+        return add(new Job(name, name, body, true), dependencies);
+    }
+
+    // Splits count items into ranges of at most grain items that run as separate jobs.
+    // Returns a job that finishes once every range is done, for other jobs to depend on
+    public Job addParallelFor(String name, int count, int grain, RangeBody body, Job... dependencies) {
+        List<Job> ranges = new ArrayList<>();
+        for (int first = 0; first < count; first += grain) {
+            int start = first;
+            int end = Math.min(count, first + grain);
+            ranges.add(add(new Job(name + " " + start + "-" + end, name, () -> body.run(start, end), false),
+                    dependencies));
+        }
+        return add(new Job(name, name, () -> {
+        }, false), ranges.isEmpty() ? dependencies : ranges.toArray(new Job[0]));
+    }
+
+    private Job add(Job job, Job... dependencies) {
+        for (Job dependency : dependencies) {
+            if (!jobs.contains(dependency)) {
+                throw new IllegalArgumentException("Job " + job.name + " depends on " + dependency.name
+                        + " which is not part of this graph");
+            }
+            dependency.dependents.add(job);
+        }
+        job.dependencies = dependencies.length;
+        jobs.add(job);
+        return job;
+    }
+
+    public List<Job> getJobs() {
+        return jobs;
+    }
+
+    // Wall clock time of the last execution in nanoseconds
+    public long getDuration() {
+        return graphDuration;
+    }
+
+    // Runs every job once and returns when all of them have finished. If a job throws, the jobs that have
+    // not started yet are skipped and the exception is rethrown here
+    public void execute() {
+        if (jobs.isEmpty()) {
+            return;
+        }
+        error.set(null);
+        pending.set(jobs.size());
+        for (Job job : jobs) {
+            job.remaining.set(job.dependencies);
+        }
+
+        graphStart = System.nanoTime();
+        for (Job job : jobs) {
+            if (job.dependencies == 0) {
+                schedule(job);
+            }
+        }
+        try {
+            Job job;
+            while ((job = pinnedJobs.take()) != DONE) {
+                run(job);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the task graph", e);
+        }
+        graphDuration = System.nanoTime() - graphStart;
+
+        Throwable failure = error.get();
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+    }
+
+    private void schedule(Job job) {
+        if (job.pinned) {
+            pinnedJobs.add(job);
+        } else {
+            pool.execute(() -> run(job));
+        }
+    }
+
+    private void run(Job job) {
+        job.thread = Thread.currentThread().getName();
+        job.startTime = System.nanoTime() - graphStart;
+        if (error.get() == null) {
+            try {
+                job.body.run();
+            } catch (Throwable t) {
+                error.compareAndSet(null, t);
+            }
+        }
+        job.endTime = System.nanoTime() - graphStart;
+
+        for (Job dependent : job.dependents) {
+            if (dependent.remaining.decrementAndGet() == 0) {
+                schedule(dependent);
+            }
+        }
+        if (pending.decrementAndGet() == 0) {
+            pinnedJobs.add(DONE);
+        }
+    }
+}
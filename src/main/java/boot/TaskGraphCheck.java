@@ -0,0 +1,255 @@
+package boot;
+
+import org.joml.Matrix4f;
+import org.joml.Random;
+import org.joml.Vector3f;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// Randomized checks of the task graph:
+//   ordering    random graphs of plain, pinned and parallel for jobs, executed several times, run every job once
+//               per execution and only after the jobs it depends on finished. Pinned jobs run on the thread
+//               calling execute and the others on the pool. Parallel for ranges cover every item once
+//   errors      an exception thrown by a job is rethrown by execute, no job depending on it runs, and the next
+//               execution runs every job again
+//   draw list   culling and sorting in parallel ranges gives the same visible items in the same order as build
+// Exits with 1 on the first failure, so it can fail a build.
+// Usage: TaskGraphCheck [trials] [seed]
+public class TaskGraphCheck {
+    static final int EXECUTIONS = 3;
+
+    // What a job of a random graph recorded in its last execution
+    static class Record {
+        final List<Integer> dependencies = new ArrayList<>();
+        final boolean pinned;
+        // Parallel for item count, 0 for other jobs
+        int items;
+        AtomicIntegerArray itemRuns;
+        // Clock value when the first range of a parallel for started
+        final AtomicInteger rangeStart = new AtomicInteger();
+        volatile int start;
+        volatile int finish;
+        volatile Thread thread;
+        final AtomicInteger runs = new AtomicInteger();
+
+        Record(boolean pinned) {
+            this.pinned = pinned;
+        }
+    }
+
+    public static void main(String[] args) {
+        int trials = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        long jobs = 0;
+        long items = 0;
+        try {
+            for (int trial = 0; trial < trials; trial++) {
+                try {
+                    jobs += checkOrdering(new Random(seed + trial), pool);
+                    checkErrors(new Random(seed + trial), pool);
+                    items += checkDrawList(new Random(seed + trial), pool);
+                } catch (IllegalStateException e) {
+                    System.err.printf("Trial %d (seed %d): %s%n", trial, seed + trial, e.getMessage());
+                    System.exit(1);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        System.out.printf("%d trials, %d jobs ordered and %d draw list items matched%n", trials, jobs, items);
+    }
+
+    // Returns the number of jobs run
+    static int checkOrdering(Random rand, ForkJoinPool pool) {
+        TaskGraph graph = new TaskGraph(pool);
+        List<TaskGraph.Job> jobs = new ArrayList<>();
+        List<Record> records = new ArrayList<>();
+        AtomicInteger clock = new AtomicInteger();
+        int count = 1 + rand.nextInt(60);
+        for (int i = 0; i < count; i++) {
+            Record record = new Record(rand.nextFloat() < 0.2f);
+            TaskGraph.Job[] dependencies = randomDependencies(rand, jobs, record);
+            String name = "job " + i;
+            TaskGraph.Job job;
+            if (!record.pinned && rand.nextFloat() < 0.2f) {
+                record.items = rand.nextInt(200);
+                record.itemRuns = new AtomicIntegerArray(record.items);
+                TaskGraph.Job ranges = graph.addParallelFor(name, record.items, 1 + rand.nextInt(32), (first, last) -> {
+                    record.rangeStart.accumulateAndGet(clock.getAndIncrement(), Math::min);
+                    for (int item = first; item < last; item++) {
+                        record.itemRuns.incrementAndGet(item);
+                    }
+                }, dependencies);
+                // Runs after every range, so it sees all the items and is recorded like the other jobs
+                job = graph.add(name + " done", () -> run(record, clock), ranges);
+            } else if (record.pinned) {
+                job = graph.addPinned(name, () -> run(record, clock), dependencies);
+            } else {
+                job = graph.add(name, () -> run(record, clock), dependencies);
+            }
+            jobs.add(job);
+            records.add(record);
+        }
+
+        Thread caller = Thread.currentThread();
+        for (int execution = 0; execution < EXECUTIONS; execution++) {
+            for (Record record : records) {
+                record.runs.set(0);
+                record.start = -1;
+                record.finish = -1;
+                record.rangeStart.set(Integer.MAX_VALUE);
+                if (record.itemRuns != null) {
+                    record.itemRuns = new AtomicIntegerArray(record.items);
+                }
+            }
+            graph.execute();
+            for (int i = 0; i < records.size(); i++) {
+                Record record = records.get(i);
+                if (record.runs.get() != 1) {
+                    throw new IllegalStateException("Job " + i + " ran " + record.runs.get() + " times");
+                }
+                int start = Math.min(record.start, record.rangeStart.get());
+                for (int dependency : record.dependencies) {
+                    if (records.get(dependency).finish > start) {
+                        throw new IllegalStateException("Job " + i + " started before job " + dependency + " finished");
+                    }
+                }
+                if (record.pinned != (record.thread == caller)) {
+                    throw new IllegalStateException("Job " + i + (record.pinned ? " is pinned but ran on "
+                            : " is not pinned but ran on ") + record.thread.getName());
+                }
+                for (int item = 0; item < record.items; item++) {
+                    if (record.itemRuns.get(item) != 1) {
+                        throw new IllegalStateException("Item " + item + " of parallel for " + i + " ran "
+                                + record.itemRuns.get(item) + " times");
+                    }
+                }
+            }
+        }
+        return count * EXECUTIONS;
+    }
+
+    static void checkErrors(Random rand, ForkJoinPool pool) {
+        TaskGraph graph = new TaskGraph(pool);
+        List<TaskGraph.Job> jobs = new ArrayList<>();
+        List<Record> records = new ArrayList<>();
+        AtomicInteger clock = new AtomicInteger();
+        int count = 2 + rand.nextInt(40);
+        int failing = rand.nextInt(count);
+        boolean[] fail = {true};
+        RuntimeException error = new RuntimeException("failing job");
+        for (int i = 0; i < count; i++) {
+            Record record = new Record(rand.nextFloat() < 0.2f);
+            TaskGraph.Job[] dependencies = randomDependencies(rand, jobs, record);
+            Runnable body = i == failing ? () -> {
+                run(record, clock);
+                if (fail[0]) {
+                    throw error;
+                }
+            } : () -> run(record, clock);
+            jobs.add(record.pinned ? graph.addPinned("job " + i, body, dependencies)
+                    : graph.add("job " + i, body, dependencies));
+            records.add(record);
+        }
+
+        try {
+            graph.execute();
+            throw new IllegalStateException("execute did not rethrow the exception of job " + failing);
+        } catch (RuntimeException e) {
+            if (e != error) {
+                throw e instanceof IllegalStateException ? (IllegalStateException) e
+                        : new IllegalStateException("execute threw " + e + " instead of the job's exception");
+            }
+        }
+        // Jobs depending on the failing job, directly or not
+        boolean[] dependent = new boolean[count];
+        for (int i = failing + 1; i < count; i++) {
+            for (int dependency : records.get(i).dependencies) {
+                dependent[i] |= dependency == failing || dependent[dependency];
+            }
+            if (dependent[i] && records.get(i).runs.get() != 0) {
+                throw new IllegalStateException("Job " + i + " ran although job " + failing + " it depends on failed");
+            }
+        }
+
+        fail[0] = false;
+        for (Record record : records) {
+            record.runs.set(0);
+        }
+        graph.execute();
+        for (int i = 0; i < count; i++) {
+            if (records.get(i).runs.get() != 1) {
+                throw new IllegalStateException("Job " + i + " did not run once after a failed execution");
+            }
+        }
+    }
+
+    // Returns the number of items compared
+    static int checkDrawList(Random rand, ForkJoinPool pool) {
+        DrawList parallel = new DrawList();
+        DrawList sequential = new DrawList();
+        int count = rand.nextInt(3000);
+        for (int i = 0; i < count; i++) {
+            Matrix4f model = new Matrix4f()
+                    .translate(rand.nextFloat() * 300.0f - 150.0f, rand.nextFloat() * 200.0f - 20.0f,
+                            rand.nextFloat() * 150.0f - 75.0f)
+                    .rotateY(rand.nextFloat() * 6.0f)
+                    .scale(0.1f + rand.nextFloat() * 3.0f);
+            Vector3f min = new Vector3f(-rand.nextFloat(), -rand.nextFloat(), -rand.nextFloat());
+            Vector3f max = new Vector3f(rand.nextFloat(), rand.nextFloat(), rand.nextFloat());
+            int mesh = rand.nextInt(16);
+            parallel.add(mesh, model, min, max);
+            sequential.add(mesh, model, min, max);
+        }
+
+        Matrix4f projection = new Matrix4f().perspective((float) Math.toRadians(Camera.ZOOM),
+                Main.SCREEN_SIZE.x / Main.SCREEN_SIZE.y, Main.NEAR_PLANE, Main.FAR_PLANE);
+        Matrix4f view = new Matrix4f().lookAt(rand.nextFloat() * 200.0f - 100.0f, rand.nextFloat() * 60.0f,
+                rand.nextFloat() * 100.0f - 50.0f, 0.0f, 20.0f, 0.0f, 0.0f, 1.0f, 0.0f);
+        int grain = 1 + rand.nextInt(256);
+
+        TaskGraph graph = new TaskGraph(pool);
+        TaskGraph.Job begin = graph.add("begin", () -> parallel.begin(view, projection, grain));
+        TaskGraph.Job ranges = graph.addParallelFor("draw list", count, grain, parallel::buildRange, begin);
+        graph.add("sort draw list", parallel::merge, ranges);
+        graph.execute();
+        sequential.build(view, projection);
+
+        if (parallel.getVisibleCount() != sequential.getVisibleCount()) {
+            throw new IllegalStateException("Parallel draw list has " + parallel.getVisibleCount()
+                    + " visible items instead of " + sequential.getVisibleCount());
+        }
+        for (int i = 0; i < parallel.getVisibleCount(); i++) {
+            if (parallel.getVisibleItem(i) != sequential.getVisibleItem(i)) {
+                throw new IllegalStateException("Parallel draw list differs at position " + i);
+            }
+        }
+        return count;
+    }
+
+    static TaskGraph.Job[] randomDependencies(Random rand, List<TaskGraph.Job> jobs, Record record) {
+        List<TaskGraph.Job> dependencies = new ArrayList<>();
+        for (int j = 0; j < jobs.size(); j++) {
+            if (rand.nextFloat() < 3.0f / (jobs.size() + 1)) {
+                dependencies.add(jobs.get(j));
+                record.dependencies.add(j);
+            }
+        }
+        return dependencies.toArray(new TaskGraph.Job[0]);
+    }
+
+    static void run(Record record, AtomicInteger clock) {
+        record.start = clock.getAndIncrement();
+        record.thread = Thread.currentThread();
+        record.runs.incrementAndGet();
+        // Give other jobs a chance to run at the same time
+        Thread.yield();
+        record.finish = clock.getAndIncrement();
+    }
+}
@@ -14,6 +14,12 @@ struct PointLight {
 	vec4 paddingAndRadius;
 };
 
+struct SpotLight {
+	vec4 color;
+	vec4 positionAndRadius;
+	vec4 directionAndCosAngle;
+};
+
 struct VisibleIndex {
 	int index;
 };
@@ -27,11 +33,16 @@ layout(std430, binding = 1) readonly buffer VisibleLightIndicesBuffer {
 	VisibleIndex data[];
 } visibleLightIndicesBuffer;
 
+layout(std430, binding = 2) readonly buffer SpotLightBuffer {
+	SpotLight data[];
+} spotLightBuffer;
+
 // Uniforms
 uniform sampler2D texture_diffuse1;
 uniform sampler2D texture_specular1;
 uniform sampler2D texture_normal1;
 uniform int numberOfTilesX;
+uniform int lightCount;
 
 out vec4 fragColor;
 
@@ -45,6 +56,12 @@ float attenuate(vec3 lightDirection, float radius) {
 	return clamp(attenuation, 0.0, 1.0);
 }
 
+// Fades the spot light out towards the edge of its cone
+float spotFalloff(vec3 lightDirection, vec3 spotDirection, float cosAngle) {
+	float cosTheta = dot(-lightDirection, spotDirection);
+	return smoothstep(cosAngle, mix(cosAngle, 1.0, 0.2), cosTheta);
+}
+
 void main() {
 	// Determine which tile this pixel belongs to
 	ivec2 location = ivec2(gl_FragCoord.xy);
@@ -66,11 +83,24 @@ void main() {
 	uint offset = index * 1024;
 	for (uint i = 0; i < 1024 && visibleLightIndicesBuffer.data[offset + i].index != -1; i++) {
 		uint lightIndex = visibleLightIndicesBuffer.data[offset + i].index;
-		PointLight light = lightBuffer.data[lightIndex];
 
-		vec4 lightColor = light.color;
-		vec3 tangentLightPosition = fragment_in.TBN * light.position.xyz;
-		float lightRadius = light.paddingAndRadius.w;
+		// Indices past the point lights refer to spot lights
+		vec4 lightColor;
+		vec3 lightPosition;
+		float lightRadius;
+		bool isSpot = lightIndex >= lightCount;
+		if (isSpot) {
+			SpotLight light = spotLightBuffer.data[lightIndex - lightCount];
+			lightColor = light.color;
+			lightPosition = light.positionAndRadius.xyz;
+			lightRadius = light.positionAndRadius.w;
+		} else {
+			PointLight light = lightBuffer.data[lightIndex];
+			lightColor = light.color;
+			lightPosition = light.position.xyz;
+			lightRadius = light.paddingAndRadius.w;
+		}
+		vec3 tangentLightPosition = fragment_in.TBN * lightPosition;
 
 		// Calculate the light attenuation on the pre-normalized lightDirection
 		vec3 lightDirection = tangentLightPosition - fragment_in.tangentFragmentPosition;
@@ -78,6 +108,10 @@ void main() {
 
 		// Normalize the light direction and calculate the halfway vector
 		lightDirection = normalize(lightDirection);
+		if (isSpot) {
+			vec4 spotDirection = spotLightBuffer.data[lightIndex - lightCount].directionAndCosAngle;
+			attenuation *= spotFalloff(lightDirection, normalize(fragment_in.TBN * spotDirection.xyz), spotDirection.w);
+		}
 		vec3 halfway = normalize(lightDirection + viewDirection);
 
 		// Calculate the diffuse and specular components of the irradiance, then irradiance, and accumulate onto color
@@ -6,6 +6,12 @@ struct PointLight {
 	vec4 paddingAndRadius;
 };
 
+struct SpotLight {
+	vec4 color;
+	vec4 positionAndRadius;
+	vec4 directionAndCosAngle;
+};
+
 struct VisibleIndex {
 	int index;
 };
@@ -19,12 +25,29 @@ layout(std430, binding = 1) writeonly buffer VisibleLightIndicesBuffer {
 	VisibleIndex data[];
 } visibleLightIndicesBuffer;
 
+layout(std430, binding = 2) readonly buffer SpotLightBuffer {
+	SpotLight data[];
+} spotLightBuffer;
+
+// Incremental culling: non zero for tiles a moved light covers, uploaded from the CPU every frame
+layout(std430, binding = 3) readonly buffer TileLightDirtyBuffer {
+	uint data[];
+} tileLightDirtyBuffer;
+
+// Incremental culling: depth bounds each tile's light list was last built with, only written here
+layout(std430, binding = 4) buffer TileDepthBoundsBuffer {
+	vec2 data[];
+} tileDepthBoundsBuffer;
+
 // Uniforms
 uniform sampler2D depthMap;
 uniform mat4 view;
 uniform mat4 projection;
 uniform ivec2 screenSize;
 uniform int lightCount;
+uniform int spotLightCount;
+// When zero, tiles whose depth bounds and lights did not change keep last frame's light list
+uniform int fullRebuild;
 
 // Shared values between all the threads in the group
 shared uint minDepthInt;
@@ -34,10 +57,28 @@ shared vec4 frustumPlanes[6];
 // Shared local storage for visible indices, will be written out to the global buffer at the end
 shared int visibleLightIndices[1024];
 shared mat4 viewProjection;
+shared bool skipTile;
 
 // Took some light culling guidance from Dice's deferred renderer
 // http://www.dice.se/news/directx-11-rendering-battlefield-3/
 
+// Returns true if the spot light's cone lies entirely behind the plane.
+// The spherical cap of the light is contained in the flat cone of height radius, so testing that cone is conservative.
+// Only the apex and the point of the base disc furthest along the plane normal need to be checked
+bool coneBehindPlane(vec3 apex, vec3 direction, float radius, float cosAngle, vec4 plane) {
+	if (dot(vec4(apex, 1.0), plane) > 0.0) {
+		return false;
+	}
+
+	vec3 m = plane.xyz - dot(plane.xyz, direction) * direction;
+	float len = length(m);
+	m = len > 1e-6 ? m / len : vec3(0.0);
+
+	float baseRadius = radius * sqrt(max(0.0, 1.0 - cosAngle * cosAngle)) / cosAngle;
+	vec3 q = apex + direction * radius + m * baseRadius;
+	return dot(vec4(q, 1.0), plane) <= 0.0;
+}
+
 #define TILE_SIZE 16
 layout(local_size_x = TILE_SIZE, local_size_y = TILE_SIZE, local_size_z = 1) in;
 void main() {
@@ -77,6 +118,11 @@ void main() {
 		minDepth = uintBitsToFloat(minDepthInt);
 		maxDepth = uintBitsToFloat(maxDepthInt);
 
+		// Reuse the previous light list when nothing that affects this tile changed
+		skipTile = fullRebuild == 0 && tileLightDirtyBuffer.data[index] == 0
+				&& tileDepthBoundsBuffer.data[index] == vec2(minDepth, maxDepth);
+		tileDepthBoundsBuffer.data[index] = vec2(minDepth, maxDepth);
+
 		// Steps based on tile sale
 		vec2 negativeStep = (2.0 * vec2(tileID)) / vec2(tileNumber);
 		vec2 positiveStep = (2.0 * vec2(tileID + ivec2(1, 1))) / vec2(tileNumber);
@@ -104,20 +150,35 @@ void main() {
 
 	barrier();
 
+	// Uniform across the work group, so returning here is safe
+	if (skipTile) {
+		return;
+	}
+
 	// Step 3: Cull lights.
 	// Parallelize the threads against the lights now.
 	// Can handle 256 simultaniously. Anymore lights than that and additional passes are performed
+	// Spot lights are indexed after the point lights, so spot light i is written as lightCount + i
 	uint threadCount = TILE_SIZE * TILE_SIZE;
-	uint passCount = (lightCount + threadCount - 1) / threadCount;
+	uint totalLightCount = lightCount + spotLightCount;
+	uint passCount = (totalLightCount + threadCount - 1) / threadCount;
 	for (uint i = 0; i < passCount; i++) {
 		// Get the lightIndex to test for this thread / pass. If the index is >= light count, then this thread can stop testing lights
 		uint lightIndex = i * threadCount + gl_LocalInvocationIndex;
-		if (lightIndex >= lightCount) {
+		if (lightIndex >= totalLightCount) {
 			break;
 		}
 
-		vec4 position = lightBuffer.data[lightIndex].position;
-		float radius = lightBuffer.data[lightIndex].paddingAndRadius.w;
+		bool isSpot = lightIndex >= lightCount;
+		vec4 position;
+		float radius;
+		if (isSpot) {
+			position = vec4(spotLightBuffer.data[lightIndex - lightCount].positionAndRadius.xyz, 1.0);
+			radius = spotLightBuffer.data[lightIndex - lightCount].positionAndRadius.w;
+		} else {
+			position = lightBuffer.data[lightIndex].position;
+			radius = lightBuffer.data[lightIndex].paddingAndRadius.w;
+		}
 
 		// We check if the light exists in our frustum
 		float distance = 0.0;
@@ -130,11 +191,25 @@ void main() {
 			}
 		}
 
+		// Spot lights that pass the sphere test are tested again against the tile with their cone
+		if (isSpot && distance > 0.0) {
+			vec4 direction = spotLightBuffer.data[lightIndex - lightCount].directionAndCosAngle;
+			for (uint j = 0; j < 6; j++) {
+				if (coneBehindPlane(position.xyz, direction.xyz, radius, direction.w, frustumPlanes[j])) {
+					distance = 0.0;
+					break;
+				}
+			}
+		}
+
 		// If greater than zero, then it is a visible light
 		if (distance > 0.0) {
 			// Add index to the shared array of visible indices
+			// With more than 1024 lights a tile can see more than fit, those are dropped like the CPU port does
 			uint offset = atomicAdd(visibleLightCount, 1);
-			visibleLightIndices[offset] = int(lightIndex);
+			if (offset < 1024) {
+				visibleLightIndices[offset] = int(lightIndex);
+			}
 		}
 	}
 
@@ -143,6 +218,7 @@ void main() {
 	// One thread should fill the global light buffer
 	if (gl_LocalInvocationIndex == 0) {
 		uint offset = index * 1024; // Determine bosition in global buffer
+		visibleLightCount = min(visibleLightCount, 1024u);
 		for (uint i = 0; i < visibleLightCount; i++) {
 			visibleLightIndicesBuffer.data[offset + i].index = visibleLightIndices[i];
 		}